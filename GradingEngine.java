@@ -0,0 +1,266 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+// Headless grading for bulk answer sheets (paper exams, imports).
+//
+// Submissions are read in chunks. Each chunk is graded in parallel with
+// fork/join and then recorded through QuizStore.recordResults, the same path
+// QuizSession's results take. Memory therefore stays bounded by the chunk size
+// however long the input stream is. For a quiz that draws a sample of its
+// bank, each sheet is graded against that student's draw. Malformed lines in
+// an answer file are skipped and reported, as the chunks before them are
+// already recorded by the time they are read.
+class GradingEngine {
+    private static final int CHUNK_SIZE = 65_536;
+    private static final int SPLIT_THRESHOLD = 1_024;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    private static final QuizMetrics.Timer GRADE_CHUNK = QuizMetrics.timer("grading.chunk");
+    private static final QuizMetrics.Counter GRADED = QuizMetrics.counter("grading.submissions");
+
+    static class Submission {
+        final String username;
+        // 1-based option numbers, as selected in QuizSession; 0 means unanswered
+        final int[] selectedOptions;
+
+        Submission(String username, int[] selectedOptions) {
+            this.username = username;
+            this.selectedOptions = selectedOptions;
+        }
+
+        // Parses "username;2,1,4,3"; throws IllegalArgumentException saying
+        // what is wrong with a malformed line
+        static Submission fromString(String str) {
+            String[] parts = str.split(";");
+            if (parts.length < 2 || parts[0].trim().isEmpty()) {
+                throw new IllegalArgumentException("Expected username;answers");
+            }
+            try {
+                return new Submission(parts[0].trim(), parseAnswers(parts[1]));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Answers must be option numbers");
+            }
+        }
+
+        // Parses "2,1,4,3"; blank entries are unanswered questions
+        static int[] parseAnswers(String str) {
+            String[] answers = str.split(",", -1);
+            int[] selected = new int[answers.length];
+            for (int i = 0; i < answers.length; i++) {
+                String answer = answers[i].trim();
+                selected[i] = answer.isEmpty() ? 0 : Integer.parseInt(answer);
+            }
+            return selected;
+        }
+    }
+
+    private static class GradeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String quizCode;
+        private final Question[] questions;
+        // Draws each student's questions instead, if not null
+        private final QuestionSampler sampler;
+        private final Submission[] submissions;
+        private final QuizResult[] results;
+        private final int from;
+        private final int to;
+
+        GradeTask(String quizCode, Question[] questions, QuestionSampler sampler, Submission[] submissions,
+                  QuizResult[] results, int from, int to) {
+            this.quizCode = quizCode;
+            this.questions = questions;
+            this.sampler = sampler;
+            this.submissions = submissions;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    Submission submission = submissions[i];
+                    Question[] graded = sampler == null ? questions : draw(submission.username);
+                    int score = score(graded, submission.selectedOptions);
+                    results[i] = new QuizResult(submission.username, quizCode, score, graded.length);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new GradeTask(quizCode, questions, sampler, submissions, results, from, mid),
+                      new GradeTask(quizCode, questions, sampler, submissions, results, mid, to));
+        }
+
+        private Question[] draw(String username) {
+            try {
+                return sampler.draw(username).toArray(new Question[0]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    static class Report {
+        long graded;
+        long rejected;
+        final List<String> errors = new ArrayList<>();
+
+        private void reject(long line, String reason) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("Line " + line + ": " + reason);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder()
+                .append("Graded ").append(graded).append(" submission(s)");
+            if (rejected > 0) {
+                text.append(", rejected ").append(rejected);
+                for (String error : errors) {
+                    text.append(System.lineSeparator()).append("  ").append(error);
+                }
+                if (rejected > errors.size()) {
+                    text.append(System.lineSeparator()).append("  ...");
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    private final QuizStore store;
+    private final ForkJoinPool pool;
+
+    public GradingEngine(QuizStore store) {
+        this(store, ForkJoinPool.commonPool());
+    }
+
+    public GradingEngine(QuizStore store, ForkJoinPool pool) {
+        this.store = store;
+        this.pool = pool;
+    }
+
+    // Number of correct answers, using the same check as QuizSession.
+    static int score(Question[] questions, int[] selectedOptions) {
+        int correct = 0;
+        int answered = Math.min(questions.length, selectedOptions.length);
+        for (int i = 0; i < answered; i++) {
+            if (questions[i].checkAnswer(selectedOptions[i])) {
+                correct++;
+            }
+        }
+        return correct;
+    }
+
+    public long grade(String quizCode, Stream<Submission> submissions) throws IOException {
+        return grade(quizCode, submissions.iterator());
+    }
+
+    // Grades and records every submission; returns how many were graded.
+    public long grade(String quizCode, Iterator<Submission> submissions) throws IOException {
+        QuizData quiz = store.findQuizByCode(quizCode);
+        QuestionSampler sampler = quiz != null && quiz.samples() ? store.sampler(quiz) : null;
+        List<Question> questionList = sampler != null ? sampler.draw("") : store.loadQuizQuestions(quizCode);
+        if (questionList.isEmpty()) {
+            throw new IOException("Quiz " + quizCode + " has no questions");
+        }
+        Question[] questions = questionList.toArray(new Question[0]);
+
+        Submission[] chunk = new Submission[CHUNK_SIZE];
+        long graded = 0;
+        while (submissions.hasNext()) {
+            int count = 0;
+            while (count < CHUNK_SIZE && submissions.hasNext()) {
+                chunk[count++] = submissions.next();
+            }
+            long start = System.nanoTime();
+            QuizResult[] results = new QuizResult[count];
+            try {
+                pool.invoke(new GradeTask(quizCode, questions, sampler, chunk, results, 0, count));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            store.recordResults(Arrays.asList(results));
+            GRADE_CHUNK.recordSince(start);
+            GRADED.add(count);
+            graded += count;
+        }
+        return graded;
+    }
+
+    // The submissions in "username;2,1,4,3" lines, read as they are asked
+    // for. Blank lines are skipped; malformed ones are skipped and added to
+    // the report with their line numbers.
+    static Iterator<Submission> readSubmissions(BufferedReader reader, Report report) {
+        return new Iterator<Submission>() {
+            private long lineNumber = 0;
+            private Submission next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    String line;
+                    while (next == null && (line = reader.readLine()) != null) {
+                        lineNumber++;
+                        line = line.trim();
+                        if (line.isEmpty()) continue;
+                        try {
+                            next = Submission.fromString(line);
+                        } catch (IllegalArgumentException e) {
+                            report.reject(lineNumber, e.getMessage());
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return next != null;
+            }
+
+            @Override
+            public Submission next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Submission submission = next;
+                next = null;
+                return submission;
+            }
+        };
+    }
+
+    // Grades an answer sheet file with one "username;2,1,4,3" line per student.
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java GradingEngine <quiz code> <answers file>");
+            System.exit(1);
+        }
+        String quizCode = args[0];
+
+        try (QuizStore store = new QuizStore(new File("."), e -> System.err.println(e.getMessage()))) {
+            store.loadUsers();
+            store.loadQuizData();
+            if (store.findQuizByCode(quizCode) == null) {
+                System.err.println("Invalid quiz code: " + quizCode);
+                System.exit(1);
+            }
+            store.start();
+
+            long start = System.nanoTime();
+            Report report = new Report();
+            try (BufferedReader reader = Files.newBufferedReader(new File(args[1]).toPath(), StandardCharsets.UTF_8)) {
+                report.graded = new GradingEngine(store).grade(quizCode, readSubmissions(reader, report));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            store.flush();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(report + System.lineSeparator() + "Finished in " + millis + " ms");
+        }
+    }
+}
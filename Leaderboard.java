@@ -0,0 +1,223 @@
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Leaderboard for one quiz, ranking each user by their best attempt.
+//
+// A higher percentage ranks first; equal percentages are ordered by who got
+// there first, then by username. The first TOP_K entries are kept in a
+// concurrent skip list that readers iterate without locking. Rank lookups for
+// anyone else count the users in better percentage buckets, then find the
+// user's position in their own bucket. Buckets are treaps that track subtree
+// sizes, so moving a user and finding a position both take O(log n), however
+// many users share one percentage.
+class Leaderboard {
+    static final int TOP_K = 100;
+
+    static class Entry implements Comparable<Entry> {
+        final String username;
+        final int score;
+        final int totalQuestions;
+        final int percent;
+        final long timestamp;
+
+        Entry(QuizResult result) {
+            this.username = result.username;
+            this.score = result.score;
+            this.totalQuestions = result.totalQuestions;
+            this.percent = QuizStats.percentOf(result);
+            this.timestamp = result.timestamp;
+        }
+
+        // Whether this attempt should replace the other as its user's best
+        boolean beats(Entry other) {
+            return percent > other.percent || (percent == other.percent && timestamp < other.timestamp);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            if (percent != other.percent) return Integer.compare(other.percent, percent);
+            if (timestamp != other.timestamp) return Long.compare(timestamp, other.timestamp);
+            return username.compareTo(other.username);
+        }
+    }
+
+    // One percentage's entries in leaderboard order: a binary search tree
+    // kept balanced by random priorities, each node counting its subtree
+    private static class Bucket {
+        private static class Node {
+            final Entry entry;
+            final int priority;
+            Node left;
+            Node right;
+            int size = 1;
+
+            Node(Entry entry, int priority) {
+                this.entry = entry;
+                this.priority = priority;
+            }
+        }
+
+        private final Random random;
+        private Node root;
+
+        Bucket(Random random) {
+            this.random = random;
+        }
+
+        int size() {
+            return size(root);
+        }
+
+        void add(Entry entry) {
+            root = insert(root, new Node(entry, random.nextInt()));
+        }
+
+        void remove(Entry entry) {
+            root = delete(root, entry);
+        }
+
+        // Number of entries ahead of this one, which must be in the bucket
+        int indexOf(Entry entry) {
+            int index = 0;
+            Node node = root;
+            while (node != null) {
+                int c = entry.compareTo(node.entry);
+                if (c == 0) return index + size(node.left);
+                if (c < 0) {
+                    node = node.left;
+                } else {
+                    index += size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            throw new IllegalStateException("No entry for " + entry.username);
+        }
+
+        private static int size(Node node) {
+            return node == null ? 0 : node.size;
+        }
+
+        private static Node update(Node node) {
+            node.size = size(node.left) + size(node.right) + 1;
+            return node;
+        }
+
+        private static Node insert(Node root, Node node) {
+            if (root == null) return node;
+            if (node.priority > root.priority) {
+                Node[] parts = split(root, node.entry);
+                node.left = parts[0];
+                node.right = parts[1];
+                return update(node);
+            }
+            if (node.entry.compareTo(root.entry) < 0) {
+                root.left = insert(root.left, node);
+            } else {
+                root.right = insert(root.right, node);
+            }
+            return update(root);
+        }
+
+        private static Node delete(Node root, Entry entry) {
+            if (root == null) return null;
+            int c = entry.compareTo(root.entry);
+            if (c == 0) return merge(root.left, root.right);
+            if (c < 0) {
+                root.left = delete(root.left, entry);
+            } else {
+                root.right = delete(root.right, entry);
+            }
+            return update(root);
+        }
+
+        // The entries before the given one, and the rest
+        private static Node[] split(Node root, Entry entry) {
+            if (root == null) return new Node[2];
+            if (root.entry.compareTo(entry) < 0) {
+                Node[] parts = split(root.right, entry);
+                root.right = parts[0];
+                parts[0] = update(root);
+                return parts;
+            }
+            Node[] parts = split(root.left, entry);
+            root.left = parts[1];
+            parts[1] = update(root);
+            return parts;
+        }
+
+        // Joins two trees where every entry of the first comes first
+        private static Node merge(Node first, Node second) {
+            if (first == null) return second;
+            if (second == null) return first;
+            if (first.priority > second.priority) {
+                first.right = merge(first.right, second);
+                return update(first);
+            }
+            second.left = merge(first, second.left);
+            return update(second);
+        }
+    }
+
+    private final ConcurrentSkipListSet<Entry> top = new ConcurrentSkipListSet<>();
+    private final Map<String, Entry> best = new HashMap<>();
+    // Users' best entries by percentage
+    private final Bucket[] buckets = new Bucket[QuizStats.BUCKETS];
+
+    Leaderboard() {
+        Random random = new Random();
+        for (int i = 0; i < QuizStats.BUCKETS; i++) {
+            buckets[i] = new Bucket(random);
+        }
+    }
+
+    public synchronized void add(QuizResult result) {
+        Entry entry = new Entry(result);
+        Entry previous = best.get(entry.username);
+        if (previous != null) {
+            if (!entry.beats(previous)) return;
+            buckets[previous.percent].remove(previous);
+            top.remove(previous);
+        }
+        best.put(entry.username, entry);
+        buckets[entry.percent].add(entry);
+
+        // A user only ever moves up, so the top set never needs refilling from below
+        if (top.size() < TOP_K || entry.compareTo(top.last()) < 0) {
+            top.add(entry);
+            if (top.size() > TOP_K) {
+                top.pollLast();
+            }
+        }
+    }
+
+    // The best attempts of the leading users, best first
+    public List<Entry> top(int limit) {
+        List<Entry> leaders = new ArrayList<>(Math.min(limit, TOP_K));
+        for (Entry entry : top) {
+            if (leaders.size() == limit) break;
+            leaders.add(entry);
+        }
+        return leaders;
+    }
+
+    // 1-based position of the user's best attempt, or 0 if they have not taken the quiz
+    public synchronized int rank(String username) {
+        Entry entry = best.get(username);
+        if (entry == null) return 0;
+        int ahead = 0;
+        for (int percent = QuizStats.BUCKETS - 1; percent > entry.percent; percent--) {
+            ahead += buckets[percent].size();
+        }
+        return ahead + buckets[entry.percent].indexOf(entry) + 1;
+    }
+
+    public synchronized Entry best(String username) {
+        return best.get(username);
+    }
+
+    // Number of ranked users
+    public synchronized int size() {
+        return best.size();
+    }
+}
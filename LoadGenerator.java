@@ -0,0 +1,520 @@
+import java.io.*;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless load test: N virtual students log in, enter a quiz code, answer
+// each question after a think time and submit, as many at once as asked.
+//
+// Students are state machines on a scheduled pool rather than a thread each,
+// so thousands can be thinking at the same time. By default they drive a
+// QuizStore in this process the way QuizSession does: questions come from
+// drawQuestions, each answer is checked as it is given, and the result goes
+// through recordAttempt. With --url they drive a running QuizServer over HTTP
+// instead. Think times are drawn from an exponential distribution around the
+// given mean, and start times are spread over the ramp-up.
+//
+// The report gives completed quizzes and requests per second, and latency
+// percentiles for login, starting a quiz (loading its questions) and
+// submitting. Think time is not counted as latency.
+class LoadGenerator {
+    private static final String PREFIX = "loadtest";
+    private static final long REPORT_INTERVAL_SECONDS = 5;
+
+    // One student's attempt at a quiz
+    interface Attempt {
+        int questionCount();
+
+        int optionCount(int question);
+
+        // Options are numbered from 1, as in answer sheets
+        void answer(int question, int option);
+
+        // Returns the number of correct answers
+        int submit() throws IOException;
+    }
+
+    // The system under test, as one student sees it
+    interface Target {
+        // Returns a session for later calls, or null if the credentials are wrong
+        String login(String username, String password) throws IOException;
+
+        Attempt start(String session, String quizCode) throws IOException;
+
+        void logout(String session) throws IOException;
+    }
+
+    private final Target target;
+    private final List<String> quizCodes;
+    private final int students;
+    private final int rounds;
+    private final long thinkMillis;
+    private final long rampMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final QuizMetrics.Timer login = QuizMetrics.timer("loadtest.login");
+    private final QuizMetrics.Timer start = QuizMetrics.timer("loadtest.start");
+    private final QuizMetrics.Timer submit = QuizMetrics.timer("loadtest.submit");
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final CountDownLatch finished;
+    private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    public LoadGenerator(Target target, List<String> quizCodes, int students, int rounds,
+                         long thinkMillis, long rampMillis, int threads) {
+        this.target = target;
+        this.quizCodes = quizCodes;
+        this.students = students;
+        this.rounds = rounds;
+        this.thinkMillis = thinkMillis;
+        this.rampMillis = rampMillis;
+        this.finished = new CountDownLatch(students);
+        this.scheduler = Executors.newScheduledThreadPool(threads, r -> {
+            Thread t = new Thread(r, "virtual-students");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static String username(int student) {
+        return PREFIX + student;
+    }
+
+    static String password(int student) {
+        return PREFIX + student;
+    }
+
+    private class Student {
+        final String username;
+        final String password;
+        final String quizCode;
+        String session;
+        Attempt attempt;
+        int question;
+        int round;
+
+        Student(int id) {
+            this.username = username(id);
+            this.password = password(id);
+            this.quizCode = quizCodes.get(id % quizCodes.size());
+        }
+
+        void login() throws IOException {
+            long begin = System.nanoTime();
+            session = target.login(username, password);
+            login.recordSince(begin);
+            if (session == null) {
+                throw new IOException("Login rejected for " + username);
+            }
+            after(think(), this::enterCode);
+        }
+
+        void enterCode() throws IOException {
+            long begin = System.nanoTime();
+            attempt = target.start(session, quizCode);
+            start.recordSince(begin);
+            if (attempt.questionCount() == 0) {
+                throw new IOException("Quiz " + quizCode + " has no questions");
+            }
+            question = 0;
+            after(think(), this::answer);
+        }
+
+        void answer() throws IOException {
+            int options = attempt.optionCount(question);
+            attempt.answer(question, 1 + ThreadLocalRandom.current().nextInt(options));
+            question++;
+            if (question < attempt.questionCount()) {
+                after(think(), this::answer);
+                return;
+            }
+
+            long begin = System.nanoTime();
+            attempt.submit();
+            submit.recordSince(begin);
+            completed.incrementAndGet();
+            if (++round < rounds) {
+                after(think(), this::enterCode);
+            } else {
+                target.logout(session);
+                finished.countDown();
+            }
+        }
+
+        void after(long delayMillis, Step step) {
+            scheduler.schedule(() -> run(step), delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        // A failed step ends this student's run
+        void run(Step step) {
+            try {
+                step.run();
+            } catch (IOException | RuntimeException e) {
+                failed.incrementAndGet();
+                errors.computeIfAbsent(String.valueOf(e.getMessage()), k -> new AtomicLong()).incrementAndGet();
+                finished.countDown();
+            }
+        }
+    }
+
+    private interface Step {
+        void run() throws IOException;
+    }
+
+    private long think() {
+        if (thinkMillis <= 0) return 0;
+        // Exponential around the mean, capped so one student cannot stall the run
+        double draw = -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return (long) (Math.min(draw, 10) * thinkMillis);
+    }
+
+    // Runs every student to the end and prints the report
+    public void run(PrintStream out) throws InterruptedException {
+        long begin = System.nanoTime();
+        for (int i = 0; i < students; i++) {
+            Student student = new Student(i);
+            long delay = students > 1 ? rampMillis * i / (students - 1) : 0;
+            student.after(delay, student::login);
+        }
+        while (!finished.await(REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS)) {
+            out.printf("%6.0f s: %d quizzes completed, %d students failed%n",
+                (System.nanoTime() - begin) / 1e9, completed.get(), failed.get());
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        scheduler.shutdown();
+
+        long requests = login.count() + start.count() + submit.count();
+        out.printf("%d students, %d quizzes completed, %d students failed in %.1f s%n",
+            students, completed.get(), failed.get(), seconds);
+        out.printf("Throughput: %.1f quizzes/s, %.1f requests/s%n", completed.get() / seconds, requests / seconds);
+        out.printf("%-10s %10s %10s %10s %10s %10s %10s%n", "Operation", "Count", "Mean ms", "p50 ms", "p90 ms", "p99 ms", "Max ms");
+        report(out, "login", login);
+        report(out, "start", start);
+        report(out, "submit", submit);
+        for (Map.Entry<String, AtomicLong> error : errors.entrySet()) {
+            out.println("Failed " + error.getValue() + " time(s): " + error.getKey());
+        }
+    }
+
+    private static void report(PrintStream out, String name, QuizMetrics.Timer timer) {
+        out.printf("%-10s %10d %10.2f %10.2f %10.2f %10.2f %10.2f%n", name, timer.count(), timer.meanNanos() / 1e6,
+            timer.percentileNanos(50) / 1e6, timer.percentileNanos(90) / 1e6,
+            timer.percentileNanos(99) / 1e6, timer.maxNanos() / 1e6);
+    }
+
+    // Drives a QuizStore directly, through the calls QuizSystemGUI makes
+    static class StoreTarget implements Target {
+        private final QuizStore store;
+
+        StoreTarget(QuizStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public String login(String username, String password) {
+            UserData user = store.login(username, password);
+            return user == null ? null : user.username;
+        }
+
+        @Override
+        public void logout(String username) {
+            // The GUI keeps no session to end
+        }
+
+        @Override
+        public Attempt start(String username, String quizCode) throws IOException {
+            QuizData quiz = store.findQuizByCode(quizCode);
+            if (quiz == null) {
+                throw new IOException("Invalid quiz code: " + quizCode);
+            }
+            List<Question> questions = store.drawQuestions(quiz, username);
+            return new Attempt() {
+                int correctAnswers = 0;
+
+                @Override
+                public int questionCount() {
+                    return questions.size();
+                }
+
+                @Override
+                public int optionCount(int question) {
+                    return questions.get(question).getOptions().length;
+                }
+
+                // Checked as each answer is given, like QuizSession.nextQuestion
+                @Override
+                public void answer(int question, int option) {
+                    if (questions.get(question).checkAnswer(option)) {
+                        correctAnswers++;
+                    }
+                }
+
+                @Override
+                public int submit() {
+                    store.recordAttempt(username, quizCode, correctAnswers, questions.size());
+                    return correctAnswers;
+                }
+            };
+        }
+    }
+
+    // Drives a QuizServer through its HTTP endpoints
+    static class HttpTarget implements Target {
+        private final String baseUrl;
+        private final HttpClient client;
+
+        HttpTarget(String baseUrl, Executor executor) {
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+            this.client = HttpClient.newBuilder()
+                .executor(executor)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        }
+
+        @Override
+        public String login(String username, String password) throws IOException {
+            HttpResponse<String> response = send("POST", "/login", null, "username", username, "password", password);
+            if (response.statusCode() == 401) return null;
+            return stringField(check(response), "token");
+        }
+
+        @Override
+        public void logout(String token) throws IOException {
+            check(send("POST", "/logout", token));
+        }
+
+        @Override
+        public Attempt start(String token, String quizCode) throws IOException {
+            String body = check(send("GET", "/questions", token, "code", quizCode));
+            int[] optionCounts = optionCounts(body);
+            int[] answers = new int[optionCounts.length];
+            return new Attempt() {
+                @Override
+                public int questionCount() {
+                    return optionCounts.length;
+                }
+
+                @Override
+                public int optionCount(int question) {
+                    return optionCounts[question];
+                }
+
+                @Override
+                public void answer(int question, int option) {
+                    answers[question] = option;
+                }
+
+                @Override
+                public int submit() throws IOException {
+                    StringBuilder sheet = new StringBuilder();
+                    for (int answer : answers) {
+                        if (sheet.length() > 0) sheet.append(',');
+                        sheet.append(answer);
+                    }
+                    String result = check(send("POST", "/submit", token, "code", quizCode, "answers", sheet.toString()));
+                    return Integer.parseInt(numberField(result, "score"));
+                }
+            };
+        }
+
+        private HttpResponse<String> send(String method, String path, String token, String... params) throws IOException {
+            StringBuilder form = new StringBuilder();
+            for (int i = 0; i < params.length; i += 2) {
+                if (form.length() > 0) form.append('&');
+                form.append(URLEncoder.encode(params[i], StandardCharsets.UTF_8)).append('=')
+                    .append(URLEncoder.encode(params[i + 1], StandardCharsets.UTF_8));
+            }
+            HttpRequest.Builder request = HttpRequest.newBuilder().timeout(Duration.ofSeconds(30));
+            if (method.equals("GET")) {
+                request.uri(URI.create(baseUrl + path + "?" + form)).GET();
+            } else {
+                request.uri(URI.create(baseUrl + path))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString(form.toString()));
+            }
+            if (token != null) {
+                request.header("Authorization", "Bearer " + token);
+            }
+            try {
+                return client.send(request.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + path);
+            }
+        }
+
+        private static String check(HttpResponse<String> response) throws IOException {
+            if (response.statusCode() != 200) {
+                String error = response.body().contains("\"error\"") ? stringField(response.body(), "error") : response.body();
+                throw new IOException(response.request().uri().getPath() + " returned " + response.statusCode() + ": " + error);
+            }
+            return response.body();
+        }
+
+        // The server's responses are flat enough to pick fields out by name
+        private static String stringField(String json, String name) throws IOException {
+            String key = "\"" + name + "\":\"";
+            int start = json.indexOf(key);
+            if (start < 0) throw new IOException("No " + name + " in response: " + json);
+            StringBuilder value = new StringBuilder();
+            for (int i = start + key.length(); i < json.length(); i++) {
+                char c = json.charAt(i);
+                if (c == '"') return value.toString();
+                if (c == '\\' && i + 1 < json.length()) {
+                    c = json.charAt(++i);
+                    if (c == 'u' && i + 4 < json.length()) {
+                        c = (char) Integer.parseInt(json.substring(i + 1, i + 5), 16);
+                        i += 4;
+                    } else if (c == 'n') {
+                        c = '\n';
+                    } else if (c == 't') {
+                        c = '\t';
+                    } else if (c == 'r') {
+                        c = '\r';
+                    }
+                }
+                value.append(c);
+            }
+            throw new IOException("Unterminated " + name + " in response");
+        }
+
+        private static String numberField(String json, String name) throws IOException {
+            String key = "\"" + name + "\":";
+            int start = json.indexOf(key);
+            if (start < 0) throw new IOException("No " + name + " in response: " + json);
+            int end = start + key.length();
+            while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '-')) {
+                end++;
+            }
+            return json.substring(start + key.length(), end);
+        }
+
+        // Number of options of each question in a /questions response: the
+        // strings two arrays deep, skipping over escapes inside strings
+        static int[] optionCounts(String json) {
+            List<Integer> counts = new ArrayList<>();
+            int depth = 0;
+            boolean inString = false;
+            for (int i = 0; i < json.length(); i++) {
+                char c = json.charAt(i);
+                if (inString) {
+                    if (c == '\\') {
+                        i++;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                    if (depth == 2) {
+                        counts.set(counts.size() - 1, counts.get(counts.size() - 1) + 1);
+                    }
+                } else if (c == '[') {
+                    depth++;
+                    if (depth == 2) counts.add(0);
+                } else if (c == ']') {
+                    depth--;
+                }
+            }
+            int[] result = new int[counts.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = counts.get(i);
+            }
+            return result;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int students = 1000;
+        int rounds = 1;
+        long thinkMillis = 2000;
+        long rampSeconds = 10;
+        int threads = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+        String url = null;
+        File dataDir = new File(".");
+        List<String> quizCodes = new ArrayList<>();
+        boolean valid = true;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--students")) {
+                    students = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--rounds")) {
+                    rounds = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--think")) {
+                    thinkMillis = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--ramp")) {
+                    rampSeconds = Long.parseLong(args[++i]);
+                } else if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--url")) {
+                    url = args[++i];
+                } else if (args[i].equals("--data")) {
+                    dataDir = new File(args[++i]);
+                } else if (args[i].startsWith("--")) {
+                    valid = false;
+                } else {
+                    quizCodes.addAll(Arrays.asList(args[i].split(",")));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            valid = false;
+        }
+        if (!valid || quizCodes.isEmpty() || students < 1 || rounds < 1 || threads < 1) {
+            System.err.println("Usage: java LoadGenerator [--students N] [--rounds N] [--think ms] [--ramp s]"
+                + " [--threads N] [--url http://host:port | --data dir] <quiz code>[,<quiz code>...]");
+            System.exit(1);
+        }
+
+        if (url != null) {
+            ExecutorService http = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "load-http");
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                new LoadGenerator(new HttpTarget(url, http), quizCodes, students, rounds, thinkMillis, rampSeconds * 1000, threads)
+                    .run(System.out);
+            } finally {
+                http.shutdown();
+            }
+            return;
+        }
+
+        try (QuizStore store = new QuizStore(dataDir, e -> System.err.println(e.getMessage()))) {
+            try {
+                store.loadAllAsync().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+            for (String code : quizCodes) {
+                QuizData quiz = store.findQuizByCode(code);
+                if (quiz == null || store.drawQuestions(quiz, username(0)).isEmpty()) {
+                    System.err.println("Invalid quiz code or quiz without questions: " + code);
+                    System.exit(1);
+                }
+            }
+            // The virtual students' accounts, left in place for runs against a server
+            int created = 0;
+            for (int i = 0; i < students; i++) {
+                if (store.createAccount("Load Test " + i, username(i), password(i))) {
+                    created++;
+                }
+            }
+            if (created > 0) {
+                System.out.println("Created " + created + " load test account(s)");
+            }
+
+            new LoadGenerator(new StoreTarget(store), quizCodes, students, rounds, thinkMillis, rampSeconds * 1000, threads)
+                .run(System.out);
+            store.flush();
+        }
+    }
+}
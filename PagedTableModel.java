@@ -0,0 +1,204 @@
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.swing.JTable;
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+
+// Table model over a large list kept elsewhere, such as the store's users.
+//
+// Rows are copied from the source a page at a time when the table first draws
+// them, and only the last MAX_PAGES pages are kept, so the model holds
+// references to what is on screen rather than a row array per item. Cells are
+// formatted as they are drawn. Sorting and filtering are left to the source,
+// which answers with an int array of positions in display order, worked out
+// on a background thread; the table shows the previous view until it arrives,
+// and keeps it if the source fails. The source must only ever append, so
+// positions stay valid until the next refresh().
+class PagedTableModel<T> extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final int PAGE_SIZE = 256;
+    private static final int MAX_PAGES = 16;
+
+    interface Source<T> {
+        int size();
+
+        // A copy of the items at positions [from, to)
+        List<T> page(int from, int to);
+
+        // Positions of the items matching the lower-cased search text (null
+        // for all), sorted on the column (-1 for source order). Called off
+        // the event thread.
+        int[] select(String text, int column, boolean descending);
+    }
+
+    static class Column<T> {
+        final String name;
+        final Class<?> type;
+        final Function<T, Object> cell;
+
+        Column(String name, Class<?> type, Function<T, Object> cell) {
+            this.name = name;
+            this.type = type;
+            this.cell = cell;
+        }
+    }
+
+    private final Source<T> source;
+    private final List<Column<T>> columns;
+    // Told, on the event thread, when the source fails to sort or filter
+    private final Consumer<String> errorHandler;
+    private final Map<Integer, List<T>> pages = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private int size = 0;
+    // Source positions in display order, or null for all of them in source order
+    private int[] view = null;
+    private int sortColumn = -1;
+    private boolean descending = false;
+    private String filter = null;
+    // The sort and filter that view was built with, restored if a new one fails
+    private int shownColumn = -1;
+    private boolean shownDescending = false;
+    private String shownFilter = null;
+    // Bumped for each new view, so a slower earlier one is ignored
+    private int generation = 0;
+
+    PagedTableModel(Source<T> source, List<Column<T>> columns, Consumer<String> errorHandler) {
+        this.source = source;
+        this.columns = columns;
+        this.errorHandler = errorHandler;
+    }
+
+    // Picks up changes to the source, keeping the sort order and filter
+    public void refresh() {
+        pages.clear();
+        size = source.size();
+        rebuildView();
+        fireTableDataChanged();
+    }
+
+    // Sorts on the column, or reverses the order if already sorted on it
+    public void sortBy(int column) {
+        descending = column == sortColumn && !descending;
+        sortColumn = column;
+        rebuildView();
+        fireTableDataChanged();
+    }
+
+    // Shows only the items matching the lower-cased search text; empty or
+    // null shows everything
+    public void setFilter(String text) {
+        this.filter = text == null || text.isEmpty() ? null : text;
+        rebuildView();
+        fireTableDataChanged();
+    }
+
+    // Sorts the model when a column header is clicked, marking the sorted column
+    public void sortOnHeaderClick(JTable table) {
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column < 0) return;
+                sortBy(table.convertColumnIndexToModel(column));
+            }
+        });
+        // Also puts the mark back if a sort fails
+        addTableModelListener(e -> {
+            for (int i = 0; i < table.getColumnCount(); i++) {
+                table.getColumnModel().getColumn(i).setHeaderValue(getColumnName(table.convertColumnIndexToModel(i)));
+            }
+            table.getTableHeader().repaint();
+        });
+    }
+
+    // The item shown in a row, or null if the source no longer has it
+    public T itemAt(int row) {
+        int position = view != null ? view[row] : row;
+        int pageNumber = position / PAGE_SIZE;
+        List<T> page = pages.get(pageNumber);
+        if (page == null) {
+            int from = pageNumber * PAGE_SIZE;
+            page = source.page(from, Math.min(size, from + PAGE_SIZE));
+            pages.put(pageNumber, page);
+        }
+        int offset = position % PAGE_SIZE;
+        return offset < page.size() ? page.get(offset) : null;
+    }
+
+    private void rebuildView() {
+        int requested = ++generation;
+        if (sortColumn < 0 && filter == null) {
+            view = null;
+            shownColumn = -1;
+            shownFilter = null;
+            return;
+        }
+        String text = filter;
+        int column = sortColumn;
+        boolean reversed = descending;
+        new SwingWorker<int[], Void>() {
+            @Override
+            protected int[] doInBackground() {
+                return source.select(text, column, reversed);
+            }
+
+            @Override
+            protected void done() {
+                if (requested != generation) return;
+                try {
+                    view = get();
+                    shownColumn = column;
+                    shownDescending = reversed;
+                    shownFilter = text;
+                } catch (InterruptedException | ExecutionException e) {
+                    sortColumn = shownColumn;
+                    descending = shownDescending;
+                    filter = shownFilter;
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    errorHandler.accept("Could not sort or filter the table: " + cause.getMessage());
+                }
+                // Positions may go past the size last read if items were added since
+                size = source.size();
+                pages.clear();
+                fireTableDataChanged();
+            }
+        }.execute();
+    }
+
+    @Override
+    public int getRowCount() {
+        return view != null ? view.length : size;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        Column<T> c = columns.get(column);
+        if (column != sortColumn) return c.name;
+        return c.name + (descending ? " \u25BC" : " \u25B2");
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return columns.get(column).type;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        T item = itemAt(row);
+        return item == null ? null : columns.get(column).cell.apply(item);
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Runs file writes on a dedicated thread so callers, such as the Swing event
+// thread, never wait on disk.
+//
+// Writes are submitted under a key naming what they write (usually a file).
+// A write still queued when another arrives for the same key is replaced, so
+// a burst of full-file rewrites turns into one write of the latest state.
+// Error callbacks run on the callback executor given at construction
+// (SwingUtilities::invokeLater for the GUI). close() runs everything still
+// queued before returning.
+class PersistenceExecutor implements Closeable {
+    interface Write {
+        void run() throws IOException;
+    }
+
+    private static class Pending {
+        Write write;
+        final List<Consumer<IOException>> onError = new ArrayList<>();
+    }
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "persistence-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Executor callbackExecutor;
+    private final Map<String, Pending> queued = new HashMap<>();
+
+    public PersistenceExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public void submit(String key, Write write, Consumer<IOException> onError) {
+        synchronized (queued) {
+            Pending pending = queued.get(key);
+            boolean coalesced = pending != null;
+            if (!coalesced) {
+                pending = new Pending();
+                queued.put(key, pending);
+            }
+            pending.write = write;
+            if (onError != null) pending.onError.add(onError);
+            if (!coalesced) {
+                writer.execute(() -> runQueued(key));
+            }
+        }
+    }
+
+    private void runQueued(String key) {
+        Pending pending;
+        synchronized (queued) {
+            pending = queued.remove(key);
+        }
+        try {
+            pending.write.run();
+        } catch (IOException e) {
+            for (Consumer<IOException> callback : pending.onError) {
+                callbackExecutor.execute(() -> callback.accept(e));
+            }
+        }
+    }
+
+    // Blocks until every write submitted so far has run.
+    public void flush() throws InterruptedIOException {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for pending writes");
+        } catch (ExecutionException | RejectedExecutionException e) {
+            // Nothing left to wait for
+        }
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
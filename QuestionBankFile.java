@@ -0,0 +1,295 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Binary question bank format (.qbin).
+//
+// Layout, big-endian:
+//   int magic, short version, int count
+//   long offset[count]            absolute position of each record
+//   records:
+//     int correctAnswer
+//     int textLength, byte[] text (UTF-8)
+//     byte optionCount, then per option: int length, byte[] option (UTF-8)
+//
+// Strings are length-prefixed, so question text may contain any character.
+// Files are read through a MappedByteBuffer. The offset table lets a reader
+// jump straight to any record, which Bank uses to read a few questions out of
+// a large file without touching the rest.
+class QuestionBankFile {
+    static final String EXTENSION = ".qbin";
+    static final String TEXT_EXTENSION = ".txt";
+
+    private static final int MAGIC = 0x51424E4B; // "QBNK"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 4;
+
+    public static List<Question> read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int count = readHeader(buffer, file);
+            List<Question> questions = new ArrayList<>(count);
+            buffer.position(HEADER_SIZE + 8 * count);
+            RecordDecoder decoder = new RecordDecoder();
+            for (int i = 0; i < count; i++) {
+                questions.add(decoder.read(buffer));
+            }
+            return questions;
+        }
+    }
+
+    // Read-only list view of a bank file. Each get() decodes that one record
+    // through the offset table, so only the questions asked for are read; the
+    // mapping stays valid if the file is replaced meanwhile. Safe for use by
+    // several threads.
+    static class Bank extends AbstractList<Question> implements RandomAccess {
+        private final ByteBuffer buffer;
+        private final int count;
+
+        Bank(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                count = readHeader(buffer.duplicate(), file);
+            }
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public Question get(int index) {
+            Objects.checkIndex(index, count);
+            ByteBuffer record = buffer.duplicate();
+            record.position((int) buffer.getLong(HEADER_SIZE + 8 * index));
+            return new RecordDecoder().read(record);
+        }
+    }
+
+    // count distinct indexes below population, in random order, by Floyd's
+    // algorithm: memory and time depend on count alone
+    static int[] drawIndexes(int population, int count, Random random) {
+        count = Math.min(count, population);
+        Set<Integer> chosen = new LinkedHashSet<>(count * 2);
+        for (int j = population - count; j < population; j++) {
+            int candidate = random.nextInt(j + 1);
+            chosen.add(chosen.contains(candidate) ? j : candidate);
+        }
+        int[] indexes = new int[count];
+        int i = 0;
+        for (int index : chosen) {
+            indexes[i++] = index;
+        }
+        // Floyd's picks come out partly ordered, so shuffle them
+        for (i = count - 1; i > 0; i--) {
+            int other = random.nextInt(i + 1);
+            int swap = indexes[i];
+            indexes[i] = indexes[other];
+            indexes[other] = swap;
+        }
+        return indexes;
+    }
+
+    // Draws count questions from the first limit lines of a text bank by
+    // reservoir sampling, holding only the lines kept so far
+    public static List<Question> sampleText(File file, int limit, int count, Random random) throws IOException {
+        List<String> reservoir = new ArrayList<>(count);
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int seen = 0;
+            while (seen < limit && (line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                if (seen < count) {
+                    reservoir.add(line);
+                } else {
+                    int slot = random.nextInt(seen + 1);
+                    if (slot < count) reservoir.set(slot, line);
+                }
+                seen++;
+            }
+        }
+        Collections.shuffle(reservoir, random);
+        List<Question> questions = new ArrayList<>(reservoir.size());
+        for (String line : reservoir) {
+            Question question = Question.fromString(line);
+            if (question != null) {
+                questions.add(question);
+            }
+        }
+        return questions;
+    }
+
+    // Writes the bank next to the target and moves it into place atomically.
+    public static void write(File file, List<Question> questions) throws IOException {
+        Path target = file.toPath();
+        // Named per process, as other processes sharing the directory write too
+        Path temp = target.resolveSibling(file.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+        int count = questions.size();
+        long[] offsets = new long[count];
+
+        // Deleted if the write fails; after the move there is nothing to delete
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long position = HEADER_SIZE + 8L * count;
+                channel.position(position);
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = position;
+                    position += writeQuestion(out, questions.get(i));
+                }
+                out.flush();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 8 * count);
+                header.putInt(MAGIC).putShort(VERSION).putInt(count);
+                for (long offset : offsets) {
+                    header.putLong(offset);
+                }
+                header.flip();
+                long headerPosition = 0;
+                while (header.hasRemaining()) {
+                    headerPosition += channel.write(header, headerPosition);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Text import/export in the Question.toString line format
+    public static List<Question> readText(File file) throws IOException {
+        List<Question> questions = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    Question question = Question.fromString(line);
+                    if (question != null) {
+                        questions.add(question);
+                    }
+                }
+            }
+        }
+        return questions;
+    }
+
+    public static void writeText(File file, List<Question> questions) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (Question question : questions) {
+                writer.write(question.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    // Converts every text question file in a directory to the binary format.
+    // A text file whose binary bank is not older is left alone and passed to
+    // skipped, as that bank holds the later edits. Returns the number of files
+    // converted.
+    public static int convertDirectory(File dir, Consumer<File> skipped) throws IOException {
+        int converted = 0;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(TEXT_EXTENSION));
+        if (files == null) return 0;
+        for (File text : files) {
+            String name = text.getName();
+            File binary = new File(dir, name.substring(0, name.length() - TEXT_EXTENSION.length()) + EXTENSION);
+            if (binary.exists() && binary.lastModified() >= text.lastModified()) {
+                skipped.accept(text);
+                continue;
+            }
+            write(binary, readText(text));
+            Files.delete(text.toPath());
+            converted++;
+        }
+        return converted;
+    }
+
+    private static int readHeader(ByteBuffer buffer, File file) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a question bank file: " + file);
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported question bank version " + version + ": " + file);
+        }
+        return buffer.getInt();
+    }
+
+    private static int writeQuestion(DataOutputStream out, Question question) throws IOException {
+        String[] options = question.getOptions();
+        if (options.length > 255) {
+            throw new IOException("Too many options in question: " + question.getQuestionText());
+        }
+        int written = 4;
+        out.writeInt(question.getCorrectAnswer());
+        written += writeString(out, question.getQuestionText());
+        out.writeByte(options.length);
+        written += 1;
+        for (String option : options) {
+            written += writeString(out, option);
+        }
+        return written;
+    }
+
+    private static int writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    // Decodes records one after another, reusing one buffer for their strings
+    private static class RecordDecoder {
+        private byte[] scratch = new byte[256];
+
+        // Reads the record at the buffer's position
+        Question read(ByteBuffer buffer) {
+            int correctAnswer = buffer.getInt();
+            String text = readString(buffer);
+            String[] options = new String[buffer.get() & 0xFF];
+            for (int j = 0; j < options.length; j++) {
+                options[j] = readString(buffer);
+            }
+            return new Question(text, options, correctAnswer);
+        }
+
+        private String readString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("convert")) {
+            int converted = convertDirectory(new File(args[1]),
+                text -> System.err.println("Skipped " + text + ": its " + EXTENSION + " file is not older"));
+            System.out.println("Converted " + converted + " question file(s)");
+        } else if (args.length == 3 && args[0].equals("import")) {
+            write(new File(args[2]), readText(new File(args[1])));
+        } else if (args.length == 3 && args[0].equals("export")) {
+            writeText(new File(args[2]), read(new File(args[1])));
+        } else {
+            System.err.println("Usage: java QuestionBankFile convert <questions dir>");
+            System.err.println("       java QuestionBankFile import <file.txt> <file.qbin>");
+            System.err.println("       java QuestionBankFile export <file.qbin> <file.txt>");
+            System.exit(1);
+        }
+    }
+}
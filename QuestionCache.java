@@ -0,0 +1,89 @@
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Size-bounded LRU cache of parsed question sets, keyed by quiz code.
+//
+// Cached lists are immutable and shared between callers. An entry is reused only
+// while the backing file keeps the modification time and length it had when it
+// was parsed, so edits made outside the application are picked up too.
+// Concurrent requests for the same quiz wait on a single parse. Hits and misses
+// of every cache in the process are counted in QuizMetrics.
+class QuestionCache {
+    interface Loader {
+        List<Question> load(File file) throws IOException;
+    }
+
+    private static class Entry {
+        final long lastModified;
+        final long length;
+        final FutureTask<List<Question>> task;
+
+        Entry(long lastModified, long length, FutureTask<List<Question>> task) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.task = task;
+        }
+    }
+
+    private static final QuizMetrics.Counter HITS = QuizMetrics.counter("questions.cache.hits");
+    private static final QuizMetrics.Counter MISSES = QuizMetrics.counter("questions.cache.misses");
+
+    static {
+        QuizMetrics.hitRate("questions.cache.hitRate", HITS, MISSES);
+    }
+
+    private final Map<String, Entry> entries;
+
+    public QuestionCache(int maxEntries) {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public List<Question> get(String quizCode, File file, Loader loader) throws IOException {
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(quizCode);
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                HITS.increment();
+            } else {
+                MISSES.increment();
+                entry = new Entry(lastModified, length, new FutureTask<>(
+                    () -> Collections.unmodifiableList(new ArrayList<>(loader.load(file)))));
+                entries.put(quizCode, entry);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            entry.task.run();
+        }
+        try {
+            return entry.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading questions for " + quizCode);
+        } catch (ExecutionException e) {
+            synchronized (this) {
+                entries.remove(quizCode, entry);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    public synchronized void invalidate(String quizCode) {
+        entries.remove(quizCode);
+    }
+}
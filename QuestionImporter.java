@@ -0,0 +1,486 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Bulk import of question banks from CSV or JSON Lines files.
+//
+// CSV:   question,option 1,option 2[,...],correct option number
+//        Fields may be quoted ("a, b" or "say ""hi"""); a header row is skipped.
+// JSONL: {"question": "...", "options": ["...", "..."], "correct": 2}
+//
+// The caller's thread reads records and hands them out in batches to a worker
+// pool, which parses and validates them. Batches are collected in input order
+// with only a fixed number in flight, so memory beyond the imported questions
+// stays constant. The quiz's question bank is written once, at the end.
+class QuestionImporter {
+    private static final int BATCH_SIZE = 4_096;
+    private static final int MAX_REPORTED_ERRORS = 20;
+    // A quoted CSV field still open after this many more lines is taken to be
+    // a stray quote
+    private static final int MAX_RECORD_LINES = 1_000;
+
+    enum Format { CSV, JSONL }
+
+    static class Report {
+        int imported;
+        int rejected;
+        final List<String> errors = new ArrayList<>();
+
+        private void reject(long line, String reason) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("Line " + line + ": " + reason);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder()
+                .append("Imported ").append(imported).append(" question(s)");
+            if (rejected > 0) {
+                text.append(", rejected ").append(rejected);
+                for (String error : errors) {
+                    text.append(System.lineSeparator()).append("  ").append(error);
+                }
+                if (rejected > errors.size()) {
+                    text.append(System.lineSeparator()).append("  ...");
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    // Records handed to one worker, and what it made of them
+    private static class Batch {
+        final String[] records = new String[BATCH_SIZE];
+        final long[] lines = new long[BATCH_SIZE];
+        int size;
+        final List<Question> questions = new ArrayList<>();
+        final List<Long> rejectedLines = new ArrayList<>();
+        final List<String> rejectedReasons = new ArrayList<>();
+    }
+
+    private final ExecutorService pool;
+    private final int window;
+
+    public QuestionImporter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public QuestionImporter(ExecutorService pool) {
+        this.pool = pool;
+        this.window = 2 * Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    static Format formatOf(File file) throws IOException {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".csv")) return Format.CSV;
+        if (name.endsWith(".jsonl") || name.endsWith(".ndjson")) return Format.JSONL;
+        throw new IOException("Unsupported file type (use .csv or .jsonl): " + file.getName());
+    }
+
+    // Appends every valid question in the file to the quiz's question bank.
+    public Report importFile(QuizStore store, String quizCode, File file) throws IOException {
+        Report report = new Report();
+        List<Question> imported;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            imported = parse(reader, formatOf(file), report);
+        }
+        if (!imported.isEmpty()) {
+            List<Question> questions = new ArrayList<>(store.loadQuizQuestions(quizCode));
+            questions.addAll(imported);
+            store.saveQuizQuestions(quizCode, questions);
+        }
+        return report;
+    }
+
+    public List<Question> parse(BufferedReader reader, Format format, Report report) throws IOException {
+        List<Question> questions = new ArrayList<>();
+        Deque<Future<Batch>> inFlight = new ArrayDeque<>();
+        try {
+            Batch batch = new Batch();
+            long lineNumber = 0;
+            boolean first = true;
+            // Lines read ahead for a quoted field that never closed
+            Deque<String> readAhead = new ArrayDeque<>();
+            String line;
+            while ((line = readAhead.isEmpty() ? reader.readLine() : readAhead.removeFirst()) != null) {
+                lineNumber++;
+                long recordLine = lineNumber;
+                if (format == Format.CSV && hasOpenQuote(line)) {
+                    // A quoted field may run over several lines
+                    List<String> continued = new ArrayList<>();
+                    boolean open = true;
+                    while (open && continued.size() < MAX_RECORD_LINES) {
+                        String next = readAhead.isEmpty() ? reader.readLine() : readAhead.removeFirst();
+                        if (next == null) break;
+                        continued.add(next);
+                        if (hasOpenQuote(next)) open = false;
+                    }
+                    if (open) {
+                        // The line goes on alone, to be rejected for its
+                        // unmatched quote, and the lines after it are read again
+                        for (int i = continued.size() - 1; i >= 0; i--) {
+                            readAhead.addFirst(continued.get(i));
+                        }
+                    } else {
+                        StringBuilder record = new StringBuilder(line);
+                        for (String next : continued) {
+                            record.append('\n').append(next);
+                        }
+                        line = record.toString();
+                        lineNumber += continued.size();
+                    }
+                }
+                if (line.trim().isEmpty()) continue;
+                if (first) {
+                    first = false;
+                    if (format == Format.CSV && line.trim().toLowerCase(Locale.ROOT).startsWith("question,")) continue;
+                }
+
+                batch.records[batch.size] = line;
+                batch.lines[batch.size] = recordLine;
+                if (++batch.size == BATCH_SIZE) {
+                    submit(batch, format, inFlight, questions, report);
+                    batch = new Batch();
+                }
+            }
+            if (batch.size > 0) {
+                submit(batch, format, inFlight, questions, report);
+            }
+            while (!inFlight.isEmpty()) {
+                collect(inFlight.removeFirst(), questions, report);
+            }
+        } finally {
+            for (Future<Batch> pending : inFlight) {
+                pending.cancel(true);
+            }
+        }
+        report.imported = questions.size();
+        return questions;
+    }
+
+    private void submit(Batch batch, Format format, Deque<Future<Batch>> inFlight,
+                        List<Question> questions, Report report) throws IOException {
+        if (inFlight.size() >= window) {
+            collect(inFlight.removeFirst(), questions, report);
+        }
+        inFlight.addLast(pool.submit(() -> parseBatch(batch, format)));
+    }
+
+    private static void collect(Future<Batch> future, List<Question> questions, Report report) throws IOException {
+        Batch batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed: " + e.getCause(), e.getCause());
+        }
+        questions.addAll(batch.questions);
+        for (int i = 0; i < batch.rejectedLines.size(); i++) {
+            report.reject(batch.rejectedLines.get(i), batch.rejectedReasons.get(i));
+        }
+    }
+
+    private static Batch parseBatch(Batch batch, Format format) {
+        for (int i = 0; i < batch.size; i++) {
+            try {
+                batch.questions.add(format == Format.CSV ? parseCsv(batch.records[i]) : parseJson(batch.records[i]));
+            } catch (IllegalArgumentException e) {
+                batch.rejectedLines.add(batch.lines[i]);
+                batch.rejectedReasons.add(e.getMessage());
+            }
+            batch.records[i] = null;
+        }
+        return batch;
+    }
+
+    private static Question validate(String text, List<String> options, int correct) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("Question text is missing");
+        }
+        if (options.size() < 2) {
+            throw new IllegalArgumentException("At least two options are required");
+        }
+        for (String option : options) {
+            if (option.trim().isEmpty()) {
+                throw new IllegalArgumentException("Options must not be blank");
+            }
+        }
+        if (correct < 1 || correct > options.size()) {
+            throw new IllegalArgumentException("Correct answer must be between 1 and " + options.size());
+        }
+        String[] trimmed = new String[options.size()];
+        for (int i = 0; i < trimmed.length; i++) {
+            trimmed[i] = options.get(i).trim();
+        }
+        return new Question(text.trim(), trimmed, correct);
+    }
+
+    private static int parseCorrect(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Correct answer is not a number: " + value.trim());
+        }
+    }
+
+    // CSV
+
+    private static boolean hasOpenQuote(String line) {
+        boolean open = false;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '"') open = !open;
+        }
+        return open;
+    }
+
+    static Question parseCsv(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        if (quoted) {
+            throw new IllegalArgumentException("Unmatched quote");
+        }
+
+        if (fields.size() < 4) {
+            throw new IllegalArgumentException("Expected question, at least two options and the correct option number");
+        }
+        int correct = parseCorrect(fields.get(fields.size() - 1));
+        return validate(fields.get(0), fields.subList(1, fields.size() - 1), correct);
+    }
+
+    // JSON Lines: a flat object per line, which is all this format needs
+
+    static Question parseJson(String record) {
+        Object value = new JsonReader(record).readDocument();
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        Map<?, ?> object = (Map<?, ?>) value;
+        Object text = object.containsKey("question") ? object.get("question") : object.get("text");
+        Object options = object.get("options");
+        Object correct = object.containsKey("correct") ? object.get("correct") : object.get("answer");
+        if (!(text instanceof String)) {
+            throw new IllegalArgumentException("\"question\" must be a string");
+        }
+        if (!(options instanceof List)) {
+            throw new IllegalArgumentException("\"options\" must be an array");
+        }
+        List<String> optionList = new ArrayList<>();
+        for (Object option : (List<?>) options) {
+            if (!(option instanceof String)) {
+                throw new IllegalArgumentException("Options must be strings");
+            }
+            optionList.add((String) option);
+        }
+        int correctAnswer;
+        if (correct instanceof Double) {
+            double number = (Double) correct;
+            if (number != Math.rint(number) || Math.abs(number) > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("\"correct\" must be a whole option number: " + correct);
+            }
+            correctAnswer = (int) number;
+        } else if (correct instanceof String) {
+            correctAnswer = parseCorrect((String) correct);
+        } else {
+            throw new IllegalArgumentException("\"correct\" must be an option number");
+        }
+        return validate((String) text, optionList, correctAnswer);
+    }
+
+    private static class JsonReader {
+        private final String text;
+        private int pos = 0;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        Object readDocument() {
+            Object value = readValue();
+            skipSpace();
+            if (pos != text.length()) throw error("Unexpected text after JSON value");
+            return value;
+        }
+
+        private Object readValue() {
+            skipSpace();
+            if (pos >= text.length()) throw error("Unexpected end of line");
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{': return readObject();
+                case '[': return readArray();
+                case '"': return readString();
+                case 't': return readWord("true", Boolean.TRUE);
+                case 'f': return readWord("false", Boolean.FALSE);
+                case 'n': return readWord("null", null);
+                default: return readNumber();
+            }
+        }
+
+        private Map<String, Object> readObject() {
+            Map<String, Object> object = new HashMap<>();
+            pos++;
+            skipSpace();
+            if (peek() == '}') {
+                pos++;
+                return object;
+            }
+            while (true) {
+                skipSpace();
+                if (peek() != '"') throw error("Expected a field name");
+                String key = readString();
+                skipSpace();
+                expect(':');
+                object.put(key, readValue());
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return object;
+                }
+            }
+        }
+
+        private List<Object> readArray() {
+            List<Object> array = new ArrayList<>();
+            pos++;
+            skipSpace();
+            if (peek() == ']') {
+                pos++;
+                return array;
+            }
+            while (true) {
+                array.add(readValue());
+                skipSpace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return array;
+                }
+            }
+        }
+
+        private String readString() {
+            StringBuilder out = new StringBuilder();
+            pos++;
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') return out.toString();
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) break;
+                char escape = text.charAt(pos++);
+                switch (escape) {
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'r': out.append('\r'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) throw error("Bad unicode escape");
+                        try {
+                            out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Bad unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default: out.append(escape);
+                }
+            }
+            throw error("Unterminated string");
+        }
+
+        private Object readWord(String word, Object value) {
+            if (!text.startsWith(word, pos)) throw error("Unexpected character");
+            pos += word.length();
+            return value;
+        }
+
+        private Double readNumber() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return Double.valueOf(text.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("Unexpected character");
+            }
+        }
+
+        private void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void expect(char c) {
+            if (peek() != c) throw error("Expected '" + c + "'");
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid JSON at column " + (pos + 1) + ": " + message);
+        }
+    }
+
+    // Imports a question bank file into an existing quiz.
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java QuestionImporter <quiz code> <questions.csv|questions.jsonl>");
+            System.exit(1);
+        }
+        String quizCode = args[0];
+
+        try (QuizStore store = new QuizStore(new File("."), e -> System.err.println(e.getMessage()))) {
+            store.loadQuizData();
+            if (store.findQuizByCode(quizCode) == null) {
+                System.err.println("Invalid quiz code: " + quizCode);
+                System.exit(1);
+            }
+
+            long start = System.nanoTime();
+            Report report = new QuestionImporter().importFile(store, quizCode, new File(args[1]));
+            store.flush();
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println(report + System.lineSeparator() + "Finished in " + millis + " ms");
+        }
+    }
+}
@@ -0,0 +1,316 @@
+import java.util.*;
+import java.util.List;
+
+// Inverted index over the text and options of every quiz's questions, for
+// prefix search and for spotting questions asked twice.
+//
+// Text is split into lower-cased runs of letters and digits. Each term maps to
+// the ascending ids of the questions (documents) that contain it. A search
+// finds the terms starting with each query word by binary search in the
+// sorted term list, ORs their postings into a bit set, and ANDs the words
+// together, so its cost depends on how many postings match rather than on the
+// number of questions.
+//
+// A quiz's questions are documents in one or more runs of consecutive ids
+// (segments), each mapping its documents to consecutive positions. When a quiz
+// is saved, the questions it starts and ends with that are unchanged keep
+// their documents; only those in between are dropped and indexed again, as a
+// new segment, and the segments after them shifted to their new positions.
+// So adding, editing or removing a question costs one hash per question and
+// indexing what changed. Dropped documents stay in the postings until they
+// outnumber the live ones, when the postings are rewritten without them and
+// the ids closed up.
+class QuestionIndex {
+    private static final int MIN_COMPACTION = 1 << 16;
+
+    static class Hit {
+        final String quizCode;
+        // Index of the question in the quiz's list
+        final int position;
+
+        Hit(String quizCode, int position) {
+            this.quizCode = quizCode;
+            this.position = position;
+        }
+    }
+
+    private static class Segment {
+        final String quizCode;
+        final int firstDoc;
+        final int count;
+        final int firstPosition;
+
+        Segment(String quizCode, int firstDoc, int count, int firstPosition) {
+            this.quizCode = quizCode;
+            this.firstDoc = firstDoc;
+            this.count = count;
+            this.firstPosition = firstPosition;
+        }
+    }
+
+    private static class QuizEntry {
+        final List<Segment> segments = new ArrayList<>();
+        // Per position: a hash of the question as saved, to spot unchanged
+        // questions, and of its normalised text, to spot duplicates
+        int[] questionHashes = new int[0];
+        int[] textHashes = new int[0];
+    }
+
+    private static class Postings {
+        int[] docs = new int[2];
+        int size = 0;
+
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) return;
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+            }
+            docs[size++] = doc;
+        }
+    }
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    // Sorted on the first search after terms come or go
+    private String[] sortedTerms = null;
+    private Postings[] sortedPostings = null;
+    private final Map<String, QuizEntry> quizzes = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final BitSet live = new BitSet();
+    private int nextDoc = 0;
+    private int liveDocs = 0;
+
+    // Lower-cased runs of letters and digits
+    static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    // Equal for texts that differ only in case, spacing and punctuation
+    static int textHash(List<String> tokens) {
+        int hash = 1;
+        for (String token : tokens) {
+            hash = hash * 31 + token.hashCode();
+        }
+        return hash;
+    }
+
+    private static int questionHash(Question question) {
+        int hash = question.getQuestionText().hashCode();
+        hash = hash * 31 + Arrays.hashCode(question.getOptions());
+        return hash * 31 + question.getCorrectAnswer();
+    }
+
+    // Brings the quiz's entry up to date with its saved questions
+    public synchronized void update(String quizCode, List<Question> questions) {
+        int[] hashes = new int[questions.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = questionHash(questions.get(i));
+        }
+        QuizEntry entry = quizzes.computeIfAbsent(quizCode, k -> new QuizEntry());
+        int[] previous = entry.questionHashes;
+
+        // Unchanged questions at the start and end
+        int common = Math.min(previous.length, hashes.length);
+        int head = 0;
+        while (head < common && previous[head] == hashes[head]) {
+            head++;
+        }
+        int tail = 0;
+        while (tail < common - head && previous[previous.length - 1 - tail] == hashes[hashes.length - 1 - tail]) {
+            tail++;
+        }
+
+        cut(entry, head, previous.length - tail, hashes.length - previous.length);
+        int[] textHashes = new int[hashes.length];
+        System.arraycopy(entry.textHashes, 0, textHashes, 0, head);
+        System.arraycopy(entry.textHashes, previous.length - tail, textHashes, hashes.length - tail, tail);
+        entry.questionHashes = hashes;
+        entry.textHashes = textHashes;
+        if (head < hashes.length - tail) {
+            addSegment(quizCode, entry, questions, head, hashes.length - tail);
+        }
+        compactIfSparse();
+    }
+
+    // Indexes a quiz not seen before; returns false if it already has an entry
+    public synchronized boolean addIfAbsent(String quizCode, List<Question> questions) {
+        if (quizzes.containsKey(quizCode)) return false;
+        update(quizCode, questions);
+        return true;
+    }
+
+    public synchronized void remove(String quizCode) {
+        QuizEntry entry = quizzes.remove(quizCode);
+        if (entry != null) {
+            cut(entry, 0, Integer.MAX_VALUE, 0);
+            compactIfSparse();
+        }
+    }
+
+    // Drops the documents at positions [from, to) and moves those after along by shift
+    private void cut(QuizEntry entry, int from, int to, int shift) {
+        List<Segment> pieces = new ArrayList<>();
+        for (Segment segment : entry.segments) {
+            int start = segment.firstPosition;
+            int end = start + segment.count;
+            segments.remove(segment.firstDoc);
+            if (start < from) {
+                pieces.add(new Segment(segment.quizCode, segment.firstDoc, Math.min(end, from) - start, start));
+            }
+            int deadStart = Math.max(start, from);
+            int deadEnd = Math.min(end, to);
+            if (deadStart < deadEnd) {
+                live.clear(segment.firstDoc + deadStart - start, segment.firstDoc + deadEnd - start);
+                liveDocs -= deadEnd - deadStart;
+            }
+            if (end > to) {
+                int kept = Math.max(start, to);
+                pieces.add(new Segment(segment.quizCode, segment.firstDoc + kept - start, end - kept, kept + shift));
+            }
+        }
+        entry.segments.clear();
+        for (Segment piece : pieces) {
+            entry.segments.add(piece);
+            segments.put(piece.firstDoc, piece);
+        }
+    }
+
+    private void addSegment(String quizCode, QuizEntry entry, List<Question> questions, int from, int to) {
+        Segment segment = new Segment(quizCode, nextDoc, to - from, from);
+        for (int position = from; position < to; position++) {
+            Question question = questions.get(position);
+            int doc = nextDoc++;
+            List<String> textTokens = tokens(question.getQuestionText());
+            entry.textHashes[position] = textHash(textTokens);
+            addTerms(textTokens, doc);
+            for (String option : question.getOptions()) {
+                addTerms(tokens(option), doc);
+            }
+        }
+        live.set(segment.firstDoc, nextDoc);
+        liveDocs += segment.count;
+        segments.put(segment.firstDoc, segment);
+        entry.segments.add(segment);
+    }
+
+    private void addTerms(List<String> terms, int doc) {
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                list = new Postings();
+                postings.put(term, list);
+                sortedTerms = null;
+            }
+            list.add(doc);
+        }
+    }
+
+    private void compactIfSparse() {
+        int dead = nextDoc - liveDocs;
+        if (dead < MIN_COMPACTION || dead < liveDocs) return;
+
+        int[] remap = new int[nextDoc];
+        int next = 0;
+        for (int doc = live.nextSetBit(0); doc >= 0; doc = live.nextSetBit(doc + 1)) {
+            remap[doc] = next++;
+        }
+        for (Iterator<Postings> it = postings.values().iterator(); it.hasNext(); ) {
+            Postings list = it.next();
+            int size = 0;
+            for (int i = 0; i < list.size; i++) {
+                if (live.get(list.docs[i])) {
+                    list.docs[size++] = remap[list.docs[i]];
+                }
+            }
+            if (size == 0) {
+                it.remove();
+                sortedTerms = null;
+            } else {
+                list.docs = Arrays.copyOf(list.docs, size);
+                list.size = size;
+            }
+        }
+        segments.clear();
+        for (QuizEntry entry : quizzes.values()) {
+            for (int i = 0; i < entry.segments.size(); i++) {
+                Segment old = entry.segments.get(i);
+                Segment moved = new Segment(old.quizCode, remap[old.firstDoc], old.count, old.firstPosition);
+                entry.segments.set(i, moved);
+                segments.put(moved.firstDoc, moved);
+            }
+        }
+        live.clear();
+        live.set(0, next);
+        nextDoc = next;
+    }
+
+    // Questions whose text or options contain a word starting with each word
+    // of the query, at most limit of them, in the order they were indexed
+    public synchronized List<Hit> search(String query, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        List<String> words = tokens(query);
+        if (words.isEmpty()) return hits;
+        sortTerms();
+
+        BitSet matches = null;
+        for (String word : words) {
+            BitSet docs = new BitSet(nextDoc);
+            int i = Arrays.binarySearch(sortedTerms, word);
+            for (i = i < 0 ? -i - 1 : i; i < sortedTerms.length && sortedTerms[i].startsWith(word); i++) {
+                Postings list = sortedPostings[i];
+                for (int j = 0; j < list.size; j++) {
+                    docs.set(list.docs[j]);
+                }
+            }
+            if (matches == null) {
+                matches = docs;
+            } else {
+                matches.and(docs);
+            }
+            if (matches.isEmpty()) return hits;
+        }
+        matches.and(live);
+
+        for (int doc = matches.nextSetBit(0); doc >= 0 && hits.size() < limit; doc = matches.nextSetBit(doc + 1)) {
+            Segment segment = segments.floorEntry(doc).getValue();
+            hits.add(new Hit(segment.quizCode, segment.firstPosition + doc - segment.firstDoc));
+        }
+        return hits;
+    }
+
+    // Questions whose text matches this one ignoring case, spacing and
+    // punctuation; hash-based, so callers compare the texts to be sure
+    public synchronized List<Hit> sameText(String questionText) {
+        int hash = textHash(tokens(questionText));
+        List<Hit> hits = new ArrayList<>();
+        for (Map.Entry<String, QuizEntry> quiz : quizzes.entrySet()) {
+            int[] textHashes = quiz.getValue().textHashes;
+            for (int position = 0; position < textHashes.length; position++) {
+                if (textHashes[position] == hash) {
+                    hits.add(new Hit(quiz.getKey(), position));
+                }
+            }
+        }
+        return hits;
+    }
+
+    private void sortTerms() {
+        if (sortedTerms != null) return;
+        sortedTerms = postings.keySet().toArray(new String[0]);
+        Arrays.sort(sortedTerms);
+        sortedPostings = new Postings[sortedTerms.length];
+        for (int i = 0; i < sortedTerms.length; i++) {
+            sortedPostings[i] = postings.get(sortedTerms[i]);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.List;
+
+// Picks the questions each student gets in a quiz that serves a sample of its
+// bank (QuizData.drawCount > 0).
+//
+// A student's draw is seeded from the quiz and the username, so it is the same
+// every time it is asked for: the quiz window, the server's /questions and
+// /submit, and batch grading all see the same questions in the same order.
+// Indexes are chosen up front and only those records are read, from the
+// binary bank through its offset table, so memory follows the draw count and
+// not the bank size. Text banks from earlier versions have no offset table and
+// are sampled in one streaming pass instead.
+class QuestionSampler {
+    private final int drawCount;
+    private final int poolSize;
+    private final long seed;
+    private final List<Question> pool;
+    private final File textBank;
+
+    // Draws from a list, such as a QuestionBankFile.Bank
+    QuestionSampler(QuizData quiz, List<Question> pool) {
+        this(quiz, pool, null);
+    }
+
+    // Draws from a legacy text bank
+    QuestionSampler(QuizData quiz, File textBank) {
+        this(quiz, null, textBank);
+    }
+
+    private QuestionSampler(QuizData quiz, List<Question> pool, File textBank) {
+        this.drawCount = quiz.drawCount;
+        this.poolSize = quiz.poolSize;
+        this.seed = quiz.seed;
+        this.pool = pool;
+        this.textBank = textBank;
+    }
+
+    public List<Question> draw(String username) throws IOException {
+        Random random = new Random(mix(seed ^ hash(username)));
+        if (pool == null) {
+            return QuestionBankFile.sampleText(textBank, poolSize > 0 ? poolSize : Integer.MAX_VALUE, drawCount, random);
+        }
+        int population = poolSize > 0 ? Math.min(poolSize, pool.size()) : pool.size();
+        int[] indexes = QuestionBankFile.drawIndexes(population, drawCount, random);
+        List<Question> drawn = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            drawn.add(pool.get(index));
+        }
+        return Collections.unmodifiableList(drawn);
+    }
+
+    // 64-bit FNV-1a of the UTF-8 bytes. String.hashCode is only 32 bits and
+    // easily collides ("Aa" and "BB"), which would give two students the
+    // same questions.
+    private static long hash(String username) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    // SplitMix64 finalizer, spreading every bit into the 48 that Random keeps
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,289 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import javax.management.*;
+
+// Process-wide counters and latency histograms, published over JMX.
+//
+// Metrics are looked up by name once, usually into a static field, and then
+// recorded on hot paths. A counter is a LongAdder, and a timer adds to a
+// fixed log-linear histogram with eight buckets per power of two, so recording
+// costs a few uncontended atomic adds and never allocates or locks. Values are
+// only summed when read, and percentiles are accurate to within 12.5%.
+//
+// publish() registers each metric as an MBean named QuizSystem:type=<kind>,name=<name>,
+// for jconsole or VisualVM; metrics created later are registered as they appear.
+final class QuizMetrics {
+    private static final String DOMAIN = "QuizSystem";
+    private static final Map<String, Metric> METRICS = new ConcurrentHashMap<>();
+    private static volatile MBeanServer server;
+
+    private QuizMetrics() {
+    }
+
+    private abstract static class Metric implements DynamicMBean {
+        final String name;
+        final String kind;
+        private final String[] attributes;
+        private final MBeanInfo info;
+
+        Metric(String name, String kind, String description, String[] attributes, String type) {
+            this.name = name;
+            this.kind = kind;
+            this.attributes = attributes;
+            MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.length];
+            for (int i = 0; i < attributes.length; i++) {
+                // Counts are whole numbers whatever the other attributes are
+                String attributeType = attributes[i].equals("Count") ? Long.class.getName() : type;
+                infos[i] = new MBeanAttributeInfo(attributes[i], attributeType, attributes[i], true, false, false);
+            }
+            this.info = new MBeanInfo(getClass().getName(), description, infos, null, null, null);
+        }
+
+        abstract Object value(String attribute);
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (!Arrays.asList(attributes).contains(attribute)) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            AttributeList list = new AttributeList();
+            for (String attribute : names) {
+                if (Arrays.asList(attributes).contains(attribute)) {
+                    list.add(new Attribute(attribute, value(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList list) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+
+    static final class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name) {
+            super(name, "Counter", "Running total", new String[] {"Count"}, Long.class.getName());
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long amount) {
+            count.add(amount);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        @Override
+        Object value(String attribute) {
+            return count();
+        }
+    }
+
+    // Latencies in nanoseconds, reported in microseconds
+    static final class Timer extends Metric {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private Timer(String name) {
+            super(name, "Timer", "Latency in microseconds",
+                new String[] {"Count", "MeanMicros", "P50Micros", "P90Micros", "P99Micros", "MaxMicros"},
+                Double.class.getName());
+        }
+
+        // Takes a System.nanoTime() from before the timed work
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+            buckets.incrementAndGet(bucket(nanos));
+        }
+
+        // Values below SUB_BUCKETS get a bucket each; above that, each power of
+        // two is split by the SUB_BITS bits after its leading one
+        private static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) return (int) nanos;
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        // The largest value that falls in the bucket
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public double meanNanos() {
+            long n = count();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        public long maxNanos() {
+            return max.get();
+        }
+
+        public long percentileNanos(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                seen += counts[i];
+            }
+            if (seen == 0) return 0;
+            long rank = (long) Math.ceil(seen * percentile / 100);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += counts[i];
+                if (cumulative >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        Object value(String attribute) {
+            switch (attribute) {
+                case "Count":
+                    return count();
+                case "MeanMicros":
+                    return meanNanos() / 1000;
+                case "P50Micros":
+                    return percentileNanos(50) / 1000.0;
+                case "P90Micros":
+                    return percentileNanos(90) / 1000.0;
+                case "P99Micros":
+                    return percentileNanos(99) / 1000.0;
+                default:
+                    return maxNanos() / 1000.0;
+            }
+        }
+    }
+
+    // A value computed when read, such as a ratio of two counters
+    static final class Gauge extends Metric {
+        private final DoubleSupplier value;
+
+        private Gauge(String name, DoubleSupplier value) {
+            super(name, "Gauge", "Current value", new String[] {"Value"}, Double.class.getName());
+            this.value = value;
+        }
+
+        @Override
+        Object value(String attribute) {
+            return value.getAsDouble();
+        }
+    }
+
+    public static Counter counter(String name) {
+        return get(name, Counter.class, () -> new Counter(name));
+    }
+
+    public static Timer timer(String name) {
+        return get(name, Timer.class, () -> new Timer(name));
+    }
+
+    // Ratio of hits to all lookups, 0 before the first lookup
+    public static Gauge hitRate(String name, Counter hits, Counter misses) {
+        return get(name, Gauge.class, () -> new Gauge(name, () -> {
+            long h = hits.count();
+            long total = h + misses.count();
+            return total == 0 ? 0.0 : (double) h / total;
+        }));
+    }
+
+    private interface Factory {
+        Metric create();
+    }
+
+    private static <M extends Metric> M get(String name, Class<M> type, Factory factory) {
+        Metric metric = METRICS.get(name);
+        if (metric == null) {
+            Metric created = factory.create();
+            metric = METRICS.putIfAbsent(name, created);
+            if (metric == null) {
+                metric = created;
+                if (server != null) {
+                    register(server, metric);
+                }
+            }
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + metric.kind);
+        }
+        return type.cast(metric);
+    }
+
+    // Registers every metric with the platform MBean server. Starting the
+    // server takes a while, so callers do this off the event thread.
+    public static synchronized void publish() {
+        if (server != null) return;
+        MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+        server = platform;
+        for (Metric metric : METRICS.values()) {
+            register(platform, metric);
+        }
+    }
+
+    private static void register(MBeanServer server, Metric metric) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + metric.kind + ",name=" + metric.name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metric, objectName);
+            }
+        } catch (InstanceAlreadyExistsException e) {
+            // Registered by a racing publish()
+        } catch (JMException e) {
+            System.err.println("Could not publish metric " + metric.name + ": " + e.getMessage());
+        }
+    }
+}
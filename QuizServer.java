@@ -0,0 +1,339 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+
+// HTTP front end for many students taking quizzes against one data directory.
+//
+// Endpoints (form-encoded parameters, JSON responses):
+//   POST /login      username, password        -> token
+//   GET  /quiz       code                      -> quiz details
+//   GET  /questions  code                      -> the student's questions, without answers
+//   POST /submit     code, answers=2,1,4,...   -> score
+//   POST /logout                               -> ends the session
+// Every endpoint except /login needs the token, either as a "token" parameter
+// or as "Authorization: Bearer <token>". A token unused for
+// SESSION_IDLE_MILLIS stops working and is swept out.
+class QuizServer {
+    static final int DEFAULT_PORT = 8080;
+    // Override with -Dquiz.server.sessionIdleMinutes
+    private static final long SESSION_IDLE_MILLIS =
+        TimeUnit.MINUTES.toMillis(Long.getLong("quiz.server.sessionIdleMinutes", 30));
+    private static final long SWEEP_MILLIS = Math.max(1_000, Math.min(60_000, SESSION_IDLE_MILLIS));
+    // Far more than a login or a sheet of answers needs; larger bodies get 413
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final QuizMetrics.Timer FINISH = QuizMetrics.timer("quiz.finish");
+
+    static {
+        // Responses are written as headers then body; without TCP_NODELAY each
+        // request stalls for a delayed ACK
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final QuizStore store;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService sweeper;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    private static class Session {
+        final String username;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Session(String username) {
+            this.username = username;
+        }
+    }
+
+    public QuizServer(QuizStore store, int port) throws IOException {
+        this.store = store;
+        this.executor = newRequestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/login", exchange -> handle(exchange, this::login));
+        server.createContext("/quiz", exchange -> handle(exchange, this::quiz));
+        server.createContext("/questions", exchange -> handle(exchange, this::questions));
+        server.createContext("/submit", exchange -> handle(exchange, this::submit));
+        server.createContext("/logout", exchange -> handle(exchange, this::logout));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // One virtual thread per request where the JDK has them (21+), otherwise a
+    // pool of platform threads sized for blocking file I/O.
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(64, Runtime.getRuntime().availableProcessors() * 16));
+        }
+    }
+
+    public void start() {
+        server.start();
+        sweeper.scheduleWithFixedDelay(this::sweepSessions, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        sweeper.shutdown();
+    }
+
+    // Drops sessions idle for longer than SESSION_IDLE_MILLIS
+    private void sweepSessions() {
+        long idleSince = System.currentTimeMillis() - SESSION_IDLE_MILLIS;
+        sessions.values().removeIf(session -> session.lastUsed < idleSince);
+    }
+
+    private interface Handler {
+        String handle(HttpExchange exchange, Map<String, String> params) throws IOException;
+    }
+
+    // Thrown by handlers to answer with a client error
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = handler.handle(exchange, readParams(exchange));
+        } catch (HttpError e) {
+            status = e.status;
+            body = "{\"error\":" + json(e.getMessage()) + "}";
+        } catch (IOException | RuntimeException e) {
+            status = 500;
+            body = "{\"error\":" + json(String.valueOf(e.getMessage())) + "}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String login(HttpExchange exchange, Map<String, String> params) throws IOException {
+        requireMethod(exchange, "POST");
+        UserData user = store.login(require(params, "username"), require(params, "password"));
+        if (user == null) {
+            throw new HttpError(401, "Invalid username or password");
+        }
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(user.username));
+        return "{\"token\":" + json(token) + ",\"fullName\":" + json(user.fullName) + "}";
+    }
+
+    private String quiz(HttpExchange exchange, Map<String, String> params) throws IOException {
+        requireMethod(exchange, "GET");
+        String username = authenticate(exchange, params);
+        QuizData quiz = requireQuiz(params);
+        int questionCount = store.drawQuestions(quiz, username).size();
+        return "{\"code\":" + json(quiz.quizCode)
+            + ",\"name\":" + json(quiz.quizName)
+            + ",\"subject\":" + json(quiz.subject)
+            + ",\"timer\":" + quiz.timer
+            + ",\"questionCount\":" + questionCount + "}";
+    }
+
+    private String questions(HttpExchange exchange, Map<String, String> params) throws IOException {
+        requireMethod(exchange, "GET");
+        String username = authenticate(exchange, params);
+        QuizData quiz = requireQuiz(params);
+        StringBuilder body = new StringBuilder("{\"code\":").append(json(quiz.quizCode)).append(",\"questions\":[");
+        List<Question> questions = store.drawQuestions(quiz, username);
+        for (int i = 0; i < questions.size(); i++) {
+            Question question = questions.get(i);
+            if (i > 0) body.append(',');
+            body.append("{\"text\":").append(json(question.getQuestionText())).append(",\"options\":[");
+            String[] options = question.getOptions();
+            for (int j = 0; j < options.length; j++) {
+                if (j > 0) body.append(',');
+                body.append(json(options[j]));
+            }
+            body.append("]}");
+        }
+        return body.append("]}").toString();
+    }
+
+    private String submit(HttpExchange exchange, Map<String, String> params) throws IOException {
+        requireMethod(exchange, "POST");
+        String username = authenticate(exchange, params);
+        QuizData quiz = requireQuiz(params);
+        List<Question> questions = store.drawQuestions(quiz, username);
+        if (questions.isEmpty()) {
+            throw new HttpError(409, "This quiz has no questions");
+        }
+
+        int[] selectedOptions;
+        try {
+            selectedOptions = GradingEngine.Submission.parseAnswers(require(params, "answers"));
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Answers must be option numbers");
+        }
+        long start = System.nanoTime();
+        int correct = GradingEngine.score(questions.toArray(new Question[0]), selectedOptions);
+        store.recordResult(username, quiz.quizCode, correct, questions.size());
+        FINISH.recordSince(start);
+        int percent = (int) ((double) correct / questions.size() * 100);
+        return "{\"score\":" + correct + ",\"total\":" + questions.size() + ",\"percent\":" + percent + "}";
+    }
+
+    private String logout(HttpExchange exchange, Map<String, String> params) {
+        requireMethod(exchange, "POST");
+        authenticate(exchange, params);
+        sessions.remove(token(exchange, params));
+        return "{\"loggedOut\":true}";
+    }
+
+    private String authenticate(HttpExchange exchange, Map<String, String> params) {
+        String token = token(exchange, params);
+        Session session = token == null ? null : sessions.get(token);
+        long now = System.currentTimeMillis();
+        if (session != null && session.lastUsed < now - SESSION_IDLE_MILLIS) {
+            // Expired but not swept yet
+            sessions.remove(token, session);
+            session = null;
+        }
+        if (session == null) {
+            throw new HttpError(401, "Not logged in");
+        }
+        session.lastUsed = now;
+        return session.username;
+    }
+
+    private static String token(HttpExchange exchange, Map<String, String> params) {
+        String token = params.get("token");
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (token == null && header != null && header.startsWith("Bearer ")) {
+            token = header.substring("Bearer ".length()).trim();
+        }
+        return token;
+    }
+
+    private QuizData requireQuiz(Map<String, String> params) {
+        QuizData quiz = store.findQuizByCode(require(params, "code"));
+        if (quiz == null) {
+            throw new HttpError(404, "Invalid quiz code");
+        }
+        return quiz;
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+            throw new HttpError(405, "Use " + method);
+        }
+    }
+
+    private static String require(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            throw new HttpError(400, "Missing parameter: " + name);
+        }
+        return value.trim();
+    }
+
+    // Query string parameters, plus the form-encoded body for POSTs. The body
+    // is refused before it is read if it says it is too large, and read no
+    // further than the limit if it does not say.
+    private static Map<String, String> readParams(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        parseForm(exchange.getRequestURI().getRawQuery(), params);
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            if (length != null && Long.parseLong(length.trim()) > MAX_BODY_BYTES) {
+                throw new HttpError(413, "Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Invalid Content-Length");
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new HttpError(413, "Request body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            if (body.length > 0) {
+                parseForm(new String(body, StandardCharsets.UTF_8), params);
+            }
+        }
+        return params;
+    }
+
+    private static void parseForm(String form, Map<String, String> into) {
+        if (form == null || form.isEmpty()) return;
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            into.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    static String json(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        QuizStore store = new QuizStore(new File("."), e -> System.err.println(e.getMessage()));
+        try {
+            store.loadAllAsync().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+
+        QuizServer server = new QuizServer(store, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            store.close();
+        }));
+        server.start();
+        QuizMetrics.publish();
+        System.out.println("Quiz server listening on port " + server.port());
+    }
+}
@@ -0,0 +1,88 @@
+// Running score statistics for one quiz, updated as each result is recorded.
+//
+// Scores are percentages. Mean and variance use Welford's online update, and a
+// histogram with one bucket per whole percent gives percentiles and "better
+// than X%" answers without looking at the individual results again.
+class QuizStats {
+    static final int BUCKETS = 101;
+
+    private final int[] histogram = new int[BUCKETS];
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0;
+
+    static int percentOf(QuizResult result) {
+        return percentOf(result.score, result.totalQuestions);
+    }
+
+    static int percentOf(int score, int totalQuestions) {
+        int percent = (int) ((double) score / totalQuestions * 100);
+        return Math.max(0, Math.min(100, percent));
+    }
+
+    public synchronized void add(QuizResult result) {
+        int percent = percentOf(result);
+        count++;
+        double delta = percent - mean;
+        mean += delta / count;
+        m2 += delta * (percent - mean);
+        histogram[percent]++;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized double mean() {
+        return mean;
+    }
+
+    // Population variance of the percentage scores
+    public synchronized double variance() {
+        return count == 0 ? 0 : m2 / count;
+    }
+
+    public double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+
+    public synchronized int min() {
+        for (int percent = 0; percent < BUCKETS; percent++) {
+            if (histogram[percent] > 0) return percent;
+        }
+        return 0;
+    }
+
+    public synchronized int max() {
+        for (int percent = BUCKETS - 1; percent >= 0; percent--) {
+            if (histogram[percent] > 0) return percent;
+        }
+        return 0;
+    }
+
+    // The smallest whole percentage that at least the given fraction (0-1) of attempts scored at or below
+    public synchronized int percentile(double fraction) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int percent = 0; percent < BUCKETS; percent++) {
+            seen += histogram[percent];
+            if (seen >= rank) return percent;
+        }
+        return BUCKETS - 1;
+    }
+
+    // Share of attempts, as a whole percentage, that scored below the given percentage
+    public synchronized int percentBelow(int percent) {
+        if (count == 0) return 0;
+        long below = 0;
+        for (int i = 0; i < Math.min(percent, BUCKETS); i++) {
+            below += histogram[i];
+        }
+        return (int) (below * 100 / count);
+    }
+
+    public synchronized int[] histogram() {
+        return histogram.clone();
+    }
+}
@@ -0,0 +1,679 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+// Headless access to users, quizzes, questions and results.
+//
+// QuizSystemGUI and the batch tools share this class so that every path that
+// records a result goes through recordResults. Changes are applied in memory
+// at once and written to disk in the background, so no caller waits on a file
+// except to create an account: users, quizzes and results go to write-ahead
+// logs under quiz_store/, and question banks are rewritten by a
+// PersistenceExecutor. Loads report problems as IOExceptions. Background write
+// failures go to the error handler, which runs on the callback executor.
+class QuizStore implements Closeable {
+    static final String USERS_FILE = "quiz_users.txt";
+    static final String QUIZ_DATA_FILE = "quiz_data.txt";
+    static final String QUIZ_QUESTIONS_DIR = "quiz_questions";
+    static final String RESULTS_FILE = "results.txt";
+    static final String RESULTS_JOURNAL_DIR = "results_journal";
+    static final String STORE_DIR = "quiz_store";
+    private static final int QUESTION_CACHE_SIZE = 64;
+    // Write-behind of user records; override with -Dquiz.users.flushMillis / -Dquiz.users.flushThreshold
+    private static final long USER_FLUSH_MILLIS = Long.getLong("quiz.users.flushMillis", 2000);
+    private static final int USER_FLUSH_THRESHOLD = Integer.getInteger("quiz.users.flushThreshold", 1000);
+    private static final int QUIZ_COMPACTION_SLACK = 64;
+
+    private static final QuizMetrics.Timer LOGIN = QuizMetrics.timer("users.login");
+    private static final QuizMetrics.Timer LOAD_USERS = QuizMetrics.timer("users.load");
+    private static final QuizMetrics.Timer LOAD_QUIZZES = QuizMetrics.timer("quizzes.load");
+    private static final QuizMetrics.Timer SAVE_QUIZ = QuizMetrics.timer("quizzes.save");
+    private static final QuizMetrics.Timer LOAD_QUESTIONS = QuizMetrics.timer("questions.load");
+    private static final QuizMetrics.Timer DRAW_QUESTIONS = QuizMetrics.timer("questions.draw");
+    private static final QuizMetrics.Timer SEARCH_QUESTIONS = QuizMetrics.timer("questions.search");
+    private static final QuizMetrics.Timer SAVE_QUESTIONS = QuizMetrics.timer("questions.save");
+    private static final QuizMetrics.Counter QUESTIONS_READ = QuizMetrics.counter("questions.recordsLoaded");
+    private static final QuizMetrics.Counter QUESTION_BYTES_WRITTEN = QuizMetrics.counter("questions.bytesWritten");
+    private static final QuestionCache.Loader READ_BANK = counted(QuestionBankFile::read);
+    private static final QuestionCache.Loader READ_TEXT_BANK = counted(QuestionBankFile::readText);
+    private static final QuizMetrics.Timer LOAD_RESULTS = QuizMetrics.timer("results.load");
+    private static final QuizMetrics.Timer RECORD_RESULTS = QuizMetrics.timer("results.record");
+
+    // A quiz's current fields, or its removal when quiz is null
+    private static class QuizChange {
+        final String code;
+        final QuizData quiz;
+
+        QuizChange(String code, QuizData quiz) {
+            this.code = code;
+            this.quiz = quiz;
+        }
+    }
+
+    private static final StorageEngine.KeyedCodec<QuizChange> QUIZ_CODEC = new StorageEngine.KeyedCodec<QuizChange>() {
+        @Override
+        public void write(QuizChange change, DataOutputStream out) throws IOException {
+            StorageEngine.writeString(out, change.code);
+            out.writeBoolean(change.quiz != null);
+            if (change.quiz != null) {
+                StorageEngine.writeString(out, change.quiz.toString());
+            }
+        }
+
+        @Override
+        public QuizChange read(ByteBuffer in) {
+            String code = StorageEngine.readString(in);
+            return new QuizChange(code, in.get() != 0 ? QuizData.fromString(StorageEngine.readString(in)) : null);
+        }
+
+        @Override
+        public String key(QuizChange change) {
+            return change.code;
+        }
+
+        @Override
+        public boolean isRemoval(QuizChange change) {
+            return change.quiz == null;
+        }
+
+        @Override
+        public QuizChange merge(QuizChange previous, QuizChange next) {
+            return next;
+        }
+    };
+
+    private final File dataDir;
+    private final File questionsDir;
+    private final UserRepository users;
+    private final List<QuizData> quizzes = new ArrayList<>();
+    // Secondary indexes, kept in step with the lists above
+    private final Map<String, QuizData> quizzesByCode = new ConcurrentHashMap<>();
+    private ResultTable results = new ResultTable();
+    private ResultRollups rollups = new ResultRollups();
+    private final File rollupsFile;
+    private boolean resultsLoaded = false;
+    private final Map<String, QuizStats> statsByQuiz = new ConcurrentHashMap<>();
+    private final Map<String, Leaderboard> leaderboards = new ConcurrentHashMap<>();
+    private final StorageEngine<QuizChange> quizLog;
+    private final ResultJournal resultJournal;
+    private final QuestionCache questionCache = new QuestionCache(QUESTION_CACHE_SIZE);
+    // Question lists saved but not yet written, so reads never see the old file
+    private final Map<String, List<Question>> pendingQuestions = new ConcurrentHashMap<>();
+    private final PersistenceExecutor persistence;
+    private final Object questionIndexLock = new Object();
+    // Set as soon as building starts, so that saves made meanwhile reach it
+    private volatile QuestionIndex questionIndex;
+    private volatile boolean questionIndexBuilt = false;
+    private final UserWriteBehind userWrites;
+    private final Consumer<IOException> errorHandler;
+
+    // For headless use: callbacks run on the writer threads
+    public QuizStore(File dataDir, Consumer<IOException> errorHandler) {
+        this(dataDir, Runnable::run, errorHandler);
+    }
+
+    public QuizStore(File dataDir, Executor callbackExecutor, Consumer<IOException> errorHandler) {
+        this.dataDir = dataDir;
+        this.questionsDir = new File(dataDir, QUIZ_QUESTIONS_DIR);
+        File storeDir = new File(dataDir, STORE_DIR);
+        Consumer<IOException> userErrors =
+            e -> callbackExecutor.execute(() -> errorHandler.accept(failure("Error saving users", e)));
+        this.users = new UserRepository(new File(dataDir, USERS_FILE), new File(storeDir, "users"), userErrors);
+        this.persistence = new PersistenceExecutor(callbackExecutor);
+        this.errorHandler = errorHandler;
+        this.userWrites = new UserWriteBehind(users, USER_FLUSH_MILLIS, USER_FLUSH_THRESHOLD, userErrors);
+        this.quizLog = new StorageEngine<>(new File(storeDir, "quizzes"), QUIZ_CODEC, 0,
+            e -> callbackExecutor.execute(() -> errorHandler.accept(failure("Error saving quiz data", e))));
+        this.resultJournal = new ResultJournal(new File(dataDir, RESULTS_FILE), new File(dataDir, RESULTS_JOURNAL_DIR),
+            new File(storeDir, "results"),
+            e -> callbackExecutor.execute(() -> errorHandler.accept(failure("Error saving results", e))));
+        this.rollupsFile = new File(storeDir, "result_rollups.dat");
+        questionsDir.mkdirs();
+    }
+
+    private static IOException failure(String what, IOException cause) {
+        return new IOException(what + ": " + cause.getMessage(), cause);
+    }
+
+    private void writeUser(UserData user) {
+        userWrites.markDirty(user);
+    }
+
+    private interface Load {
+        void run() throws IOException;
+    }
+
+    // Loads users, quizzes and results each on its own thread, and starts the
+    // write-ahead logs once everything is in. If a load fails the logs are
+    // left closed, as writing over a partly loaded store could lose what did
+    // not load, and the future fails with the first error once every load
+    // has finished.
+    public CompletableFuture<Void> loadAllAsync() {
+        CompletableFuture<Void> users = loadAsync(this::loadUsers, "Error loading users");
+        CompletableFuture<Void> quizzes = loadAsync(this::loadQuizData, "Error loading quiz data");
+        CompletableFuture<Void> results = loadAsync(this::loadResults, "Error loading results");
+        CompletableFuture<Void> logs = CompletableFuture.allOf(users, quizzes, results)
+            .thenCompose(ignored -> loadAsync(this::start, "Error opening the data store"));
+        return CompletableFuture.allOf(users, quizzes, results, logs);
+    }
+
+    private static CompletableFuture<Void> loadAsync(Load load, String what) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                load.run();
+            } catch (IOException e) {
+                throw new CompletionException(failure(what, e));
+            }
+        }, task -> {
+            Thread t = new Thread(task, "store-loader");
+            t.setDaemon(true);
+            t.start();
+        });
+    }
+
+    // Users
+
+    public void loadUsers() throws IOException {
+        long start = System.nanoTime();
+        users.load();
+        LOAD_USERS.recordSince(start);
+    }
+
+    public UserData getUser(String username) {
+        return users.get(username);
+    }
+
+    public List<UserData> allUsers() {
+        return users.all();
+    }
+
+    public int userCount() {
+        return users.size();
+    }
+
+    // Users at positions [from, to) in the order they signed up; positions
+    // only change when the users are reloaded
+    public List<UserData> usersPage(int from, int to) {
+        return users.page(from, to);
+    }
+
+    // Positions, as in usersPage, of the users whose username or full name
+    // contains the lower-cased text (null for all), in the order given (null
+    // for sign-up order)
+    public int[] selectUsers(String text, UserRepository.Order order, boolean descending) {
+        return users.select(text, order, descending);
+    }
+
+    // Returns the user with a refreshed lastLogin, or null if the credentials are wrong.
+    public UserData login(String username, String password) {
+        long start = System.nanoTime();
+        UserData user = authenticate(username, password);
+        if (user != null) {
+            recordLogin(user);
+        }
+        LOGIN.recordSince(start);
+        return user;
+    }
+
+    public UserData authenticate(String username, String password) {
+        UserData user = users.get(username);
+        return user != null && user.password.equals(password) ? user : null;
+    }
+
+    public void recordLogin(UserData user) {
+        user.lastLogin = System.currentTimeMillis();
+        writeUser(user);
+    }
+
+    // Written through rather than behind, so two processes cannot both
+    // create the same username
+    public boolean createAccount(String fullName, String username, String password) throws IOException {
+        return users.add(new UserData(username, password, fullName));
+    }
+
+    // Quizzes
+
+    public void loadQuizData() throws IOException {
+        long start = System.nanoTime();
+        importQuizData();
+        List<QuizChange> changes = new ArrayList<>();
+        quizLog.load(changes::add);
+        synchronized (this) {
+            quizzes.clear();
+            quizzesByCode.clear();
+            for (QuizChange change : changes) {
+                applyQuizChange(change);
+            }
+        }
+        LOAD_QUIZZES.recordSince(start);
+    }
+
+    private void applyQuizChange(QuizChange change) {
+        QuizData previous = change.quiz != null
+            ? quizzesByCode.put(change.code, change.quiz) : quizzesByCode.remove(change.code);
+        if (previous == null) {
+            if (change.quiz != null) quizzes.add(change.quiz);
+        } else if (change.quiz == null) {
+            quizzes.remove(previous);
+        } else {
+            quizzes.set(quizzes.indexOf(previous), change.quiz);
+        }
+    }
+
+    // Sets the quiz log up from the quiz_data.txt of earlier versions, then
+    // sets the file aside
+    private void importQuizData() throws IOException {
+        if (quizLog.exists() || !quizLog.create(this::readQuizData)) return;
+        File file = new File(dataDir, QUIZ_DATA_FILE);
+        if (file.exists()) {
+            file.renameTo(new File(dataDir, QUIZ_DATA_FILE + ".imported"));
+        }
+    }
+
+    private List<QuizChange> readQuizData() throws IOException {
+        List<QuizChange> imported = new ArrayList<>();
+        Set<String> codes = new HashSet<>();
+        File file = new File(dataDir, QUIZ_DATA_FILE);
+        if (file.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        QuizData quiz = QuizData.fromString(line);
+                        if (quiz != null && codes.add(quiz.quizCode)) {
+                            imported.add(new QuizChange(quiz.quizCode, quiz));
+                        }
+                    }
+                }
+            }
+        }
+        return imported;
+    }
+
+    // Logs the current fields of a quiz after they have been edited.
+    public synchronized void saveQuiz(QuizData quiz) {
+        long start = System.nanoTime();
+        logQuizChange(new QuizChange(quiz.quizCode, quiz));
+        SAVE_QUIZ.recordSince(start);
+    }
+
+    // Callers hold the store's lock, so the log sees changes in the order they were made
+    private void logQuizChange(QuizChange change) {
+        try {
+            startQuizLog();
+            quizLog.append(change);
+            if (quizLog.recordsSinceCheckpoint() > 2 * quizzes.size() + QUIZ_COMPACTION_SLACK) {
+                quizLog.checkpoint();
+            }
+        } catch (IOException e) {
+            errorHandler.accept(failure("Error saving quiz data", e));
+        }
+    }
+
+    private void startQuizLog() throws IOException {
+        importQuizData();
+        // Quizzes added, edited or removed by another process
+        quizLog.start(change -> {
+            synchronized (this) {
+                applyQuizChange(change);
+            }
+        });
+    }
+
+    public synchronized List<QuizData> quizzes() {
+        return new ArrayList<>(quizzes);
+    }
+
+    // Lock-free, so request threads looking up quizzes do not queue behind writers
+    public QuizData findQuizByCode(String code) {
+        return quizzesByCode.get(code);
+    }
+
+    // Returns false if the quiz code is already taken.
+    public synchronized boolean addQuiz(QuizData quiz) {
+        if (quizzesByCode.putIfAbsent(quiz.quizCode, quiz) != null) {
+            return false;
+        }
+        quizzes.add(quiz);
+        logQuizChange(new QuizChange(quiz.quizCode, quiz));
+        return true;
+    }
+
+    // Removes a quiz together with its question files.
+    public void removeQuiz(String code) {
+        synchronized (this) {
+            quizzes.removeIf(quiz -> quiz.quizCode.equals(code));
+            quizzesByCode.remove(code);
+            logQuizChange(new QuizChange(code, null));
+        }
+        List<Question> none = Collections.emptyList();
+        pendingQuestions.put(code, none);
+        QuestionIndex index = questionIndex;
+        if (index != null) {
+            index.remove(code);
+        }
+        persistence.submit(questionsKey(code), () -> {
+            try {
+                Files.deleteIfExists(new File(questionsDir, code + QuestionBankFile.EXTENSION).toPath());
+                Files.deleteIfExists(new File(questionsDir, code + QuestionBankFile.TEXT_EXTENSION).toPath());
+            } finally {
+                questionCache.invalidate(code);
+                pendingQuestions.remove(code, none);
+            }
+        }, e -> errorHandler.accept(failure("Error removing questions", e)));
+    }
+
+    // Questions
+
+    // Returns the cached, read-only question list for a quiz. Quizzes saved
+    // before the binary format existed are still read from their text file.
+    public List<Question> loadQuizQuestions(String quizCode) throws IOException {
+        long start = System.nanoTime();
+        try {
+            List<Question> pending = pendingQuestions.get(quizCode);
+            if (pending != null) return pending;
+
+            File file = new File(questionsDir, quizCode + QuestionBankFile.EXTENSION);
+            QuestionCache.Loader loader = READ_BANK;
+            if (!file.exists()) {
+                file = new File(questionsDir, quizCode + QuestionBankFile.TEXT_EXTENSION);
+                loader = READ_TEXT_BANK;
+                if (!file.exists()) return Collections.emptyList();
+            }
+            return questionCache.get(quizCode, file, loader);
+        } finally {
+            LOAD_QUESTIONS.recordSince(start);
+        }
+    }
+
+    // The questions a student is served: the whole bank in order, or for a
+    // quiz that draws a sample, that student's own draw, the same every time.
+    public List<Question> drawQuestions(QuizData quiz, String username) throws IOException {
+        if (!quiz.samples()) return loadQuizQuestions(quiz.quizCode);
+        long start = System.nanoTime();
+        try {
+            return sampler(quiz).draw(username);
+        } finally {
+            DRAW_QUESTIONS.recordSince(start);
+        }
+    }
+
+    // For drawing many students' questions with the bank opened once. Draws
+    // come from the bank as it is now, reading only the questions drawn.
+    public QuestionSampler sampler(QuizData quiz) throws IOException {
+        List<Question> pending = pendingQuestions.get(quiz.quizCode);
+        if (pending != null) return new QuestionSampler(quiz, pending);
+
+        File file = new File(questionsDir, quiz.quizCode + QuestionBankFile.EXTENSION);
+        if (file.exists()) return new QuestionSampler(quiz, new QuestionBankFile.Bank(file));
+        File text = new File(questionsDir, quiz.quizCode + QuestionBankFile.TEXT_EXTENSION);
+        if (text.exists()) return new QuestionSampler(quiz, text);
+        return new QuestionSampler(quiz, Collections.emptyList());
+    }
+
+    // Counts the questions read from disk, which the cache saves on a hit
+    private static QuestionCache.Loader counted(QuestionCache.Loader loader) {
+        return file -> {
+            List<Question> questions = loader.load(file);
+            QUESTIONS_READ.add(questions.size());
+            return questions;
+        };
+    }
+
+    // Queues a rewrite of the quiz's question bank. Until it lands,
+    // loadQuizQuestions answers from the saved list.
+    public void saveQuizQuestions(String quizCode, List<Question> questions) {
+        List<Question> saved = Collections.unmodifiableList(new ArrayList<>(questions));
+        pendingQuestions.put(quizCode, saved);
+        QuestionIndex index = questionIndex;
+        if (index != null) {
+            index.update(quizCode, saved);
+        }
+        persistence.submit(questionsKey(quizCode), () -> {
+            long start = System.nanoTime();
+            try {
+                File file = new File(questionsDir, quizCode + QuestionBankFile.EXTENSION);
+                QuestionBankFile.write(file, saved);
+                QUESTION_BYTES_WRITTEN.add(file.length());
+                // The binary bank now holds everything the legacy text file did
+                Files.deleteIfExists(new File(questionsDir, quizCode + QuestionBankFile.TEXT_EXTENSION).toPath());
+            } finally {
+                questionCache.invalidate(quizCode);
+                pendingQuestions.remove(quizCode, saved);
+                SAVE_QUESTIONS.recordSince(start);
+            }
+        }, e -> errorHandler.accept(failure("Error saving questions", e)));
+    }
+
+    private static String questionsKey(String quizCode) {
+        return QUIZ_QUESTIONS_DIR + "/" + quizCode;
+    }
+
+    // Indexes every quiz's questions for searching, the first time it is
+    // called; saves keep the index up to date after that. Takes a while for
+    // large banks, so callers do this off the event thread.
+    public QuestionIndex questionIndex() throws IOException {
+        if (questionIndexBuilt) return questionIndex;
+        synchronized (questionIndexLock) {
+            if (!questionIndexBuilt) {
+                QuestionIndex index = new QuestionIndex();
+                questionIndex = index;
+                for (QuizData quiz : quizzes()) {
+                    // A quiz saved since building started is already in the index
+                    index.addIfAbsent(quiz.quizCode, questionsToIndex(quiz.quizCode));
+                }
+                questionIndexBuilt = true;
+            }
+            return questionIndex;
+        }
+    }
+
+    // Reads a binary bank a question at a time rather than through the cache
+    private List<Question> questionsToIndex(String quizCode) throws IOException {
+        List<Question> pending = pendingQuestions.get(quizCode);
+        if (pending != null) return pending;
+        File file = new File(questionsDir, quizCode + QuestionBankFile.EXTENSION);
+        if (file.exists()) return new QuestionBankFile.Bank(file);
+        return loadQuizQuestions(quizCode);
+    }
+
+    // Questions in any quiz with a word starting with each word of the query
+    public List<QuestionIndex.Hit> searchQuestions(String query, int limit) throws IOException {
+        QuestionIndex index = questionIndex();
+        long start = System.nanoTime();
+        try {
+            return index.search(query, limit);
+        } finally {
+            SEARCH_QUESTIONS.recordSince(start);
+        }
+    }
+
+    // Questions with the same text as this one, ignoring case, spacing and
+    // punctuation. Finds nothing until the index has been built.
+    public List<QuestionIndex.Hit> findDuplicates(String questionText) throws IOException {
+        List<QuestionIndex.Hit> duplicates = new ArrayList<>();
+        if (!questionIndexBuilt) return duplicates;
+        List<String> words = QuestionIndex.tokens(questionText);
+        for (QuestionIndex.Hit hit : questionIndex.sameText(questionText)) {
+            List<Question> questions = loadQuizQuestions(hit.quizCode);
+            if (hit.position < questions.size()
+                    && QuestionIndex.tokens(questions.get(hit.position).getQuestionText()).equals(words)) {
+                duplicates.add(hit);
+            }
+        }
+        return duplicates;
+    }
+
+    public QuestionCache questionCache() {
+        return questionCache;
+    }
+
+    // Results
+
+    public void loadResults() throws IOException {
+        long start = System.nanoTime();
+        // Each result is folded in as it is read, so only the table outlives the load
+        ResultTable loaded = new ResultTable();
+        Map<String, QuizStats> loadedStats = new HashMap<>();
+        Map<String, Leaderboard> loadedLeaderboards = new HashMap<>();
+        resultJournal.load(result -> {
+            loaded.add(result);
+            loadedStats.computeIfAbsent(result.quizCode, k -> new QuizStats()).add(result);
+            loadedLeaderboards.computeIfAbsent(result.quizCode, k -> new Leaderboard()).add(result);
+        });
+        ResultRollups loadedRollups = ResultRollups.load(rollupsFile, loaded);
+        synchronized (this) {
+            results = loaded;
+            rollups = loadedRollups;
+            resultsLoaded = true;
+            statsByQuiz.clear();
+            statsByQuiz.putAll(loadedStats);
+            leaderboards.clear();
+            leaderboards.putAll(loadedLeaderboards);
+        }
+        LOAD_RESULTS.recordSince(start);
+    }
+
+    private void addResult(QuizResult result) {
+        results.add(result);
+        rollups.add(result);
+        statsByQuiz.computeIfAbsent(result.quizCode, k -> new QuizStats()).add(result);
+        leaderboards.computeIfAbsent(result.quizCode, k -> new Leaderboard()).add(result);
+    }
+
+    // Starts the write-ahead logs, after the loads
+    public void start() throws IOException {
+        users.start();
+        startQuizLog();
+        // Results recorded by another process
+        resultJournal.start(result -> {
+            synchronized (this) {
+                addResult(result);
+            }
+        });
+    }
+
+    public synchronized List<QuizResult> results() {
+        return results.rows(0, results.size());
+    }
+
+    public synchronized int resultCount() {
+        return results.size();
+    }
+
+    // Results at positions [from, to), oldest first; positions only change
+    // when the results are reloaded
+    public synchronized List<QuizResult> resultsPage(int from, int to) {
+        return results.rows(from, to);
+    }
+
+    // Positions, as in resultsPage, of the results whose username or quiz
+    // code contains the lower-cased text (null for all), in the order given
+    // (null for oldest first)
+    public synchronized int[] selectResults(String text, ResultTable.Order order, boolean descending) {
+        return results.select(text, order, descending);
+    }
+
+    // One user's results, oldest first
+    public synchronized List<QuizResult> resultsFor(String username) {
+        return results.rowsFor(username);
+    }
+
+    // Score statistics over every recorded attempt at a quiz
+    public QuizStats statsFor(String quizCode) {
+        QuizStats stats = statsByQuiz.get(quizCode);
+        return stats != null ? stats : new QuizStats();
+    }
+
+    // Attempt counts and percentage scores for a quiz per hour, day or week
+    // between two local dates (inclusive), oldest first
+    public synchronized List<ResultRollups.Bucket> trend(String quizCode, ResultRollups.Period period,
+            LocalDate from, LocalDate to) {
+        return rollups.range(quizCode, period, from, to);
+    }
+
+    // Users ranked by their best attempt at a quiz
+    public Leaderboard leaderboard(String quizCode) {
+        Leaderboard leaderboard = leaderboards.get(quizCode);
+        return leaderboard != null ? leaderboard : new Leaderboard();
+    }
+
+    public QuizResult recordResult(String username, String quizCode, int score, int totalQuestions) {
+        QuizResult result = new QuizResult(username, quizCode, score, totalQuestions);
+        recordResults(Collections.singletonList(result));
+        return result;
+    }
+
+    // Records a finished quiz as QuizSession does; returns the share of
+    // earlier attempts this score beat, or -1 for the first attempt at the quiz
+    public int recordAttempt(String username, String quizCode, int score, int totalQuestions) {
+        QuizStats stats = statsFor(quizCode);
+        int betterThan = stats.count() > 0 ? stats.percentBelow((int) ((double) score / totalQuestions * 100)) : -1;
+        recordResult(username, quizCode, score, totalQuestions);
+        return betterThan;
+    }
+
+    // Stores finished results and folds them into each user's stats. Users
+    // touched by several results are written once.
+    public void recordResults(Collection<QuizResult> batch) {
+        long start = System.nanoTime();
+        Map<String, UserData> touched = new LinkedHashMap<>();
+        synchronized (this) {
+            for (QuizResult result : batch) {
+                addResult(result);
+                resultJournal.append(result);
+
+                UserData user = users.get(result.username);
+                if (user != null) {
+                    users.recordAttempt(user, (int) ((double) result.score / result.totalQuestions * 100));
+                    touched.put(user.username, user);
+                }
+            }
+        }
+        userWrites.markDirty(touched.values());
+        RECORD_RESULTS.recordSince(start);
+    }
+
+    // Blocks until every change made so far is on disk.
+    public void flush() throws IOException {
+        userWrites.flush();
+        persistence.flush();
+        users.flush();
+        try {
+            quizLog.flush();
+            resultJournal.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing results");
+        }
+    }
+
+    // Writes everything still queued, then stops the writer threads.
+    @Override
+    public void close() {
+        userWrites.close();
+        users.close();
+        persistence.close();
+        quizLog.close();
+        resultJournal.close();
+        // Only speeds up the next load, which rebuilds the rollups without it
+        synchronized (this) {
+            if (!resultsLoaded) return;
+            try {
+                rollups.save(rollupsFile, results);
+            } catch (IOException e) {
+                errorHandler.accept(failure("Error saving result rollups", e));
+            }
+        }
+    }
+}
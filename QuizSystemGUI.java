@@ -1,19 +1,31 @@
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.*;
-import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.table.DefaultTableModel;
 
 class UserData {
     String username;
     String password;
     String fullName;
-    Date lastLogin;
+    // Epoch millis
+    long lastLogin;
     int quizzesTaken;
     int highScore;
 
@@ -21,10 +33,30 @@ class UserData {
         this.username = username;
         this.password = password;
         this.fullName = fullName;
-        this.lastLogin = new Date();
+        this.lastLogin = System.currentTimeMillis();
         this.quizzesTaken = 0;
         this.highScore = 0;
     }
+    
+    @Override
+    public String toString() {
+        return username + ";" + password + ";" + fullName + ";" + RecordFormat.formatTimestamp(lastLogin) + ";" + quizzesTaken + ";" + highScore;
+    }
+    
+    public static UserData fromString(String str) {
+        RecordFormat.Fields fields = new RecordFormat.Fields(str, ';');
+        try {
+            UserData user = new UserData(fields.next(), fields.next(), fields.next());
+            user.lastLogin = fields.nextTimestamp();
+            user.quizzesTaken = fields.nextInt();
+            if (!fields.hasNext()) return null;
+            user.highScore = fields.nextInt();
+            return user;
+        } catch (RuntimeException e) {
+            // Skip invalid user data
+            return null;
+        }
+    }
 }
 
 class Question {
@@ -46,6 +78,10 @@ class Question {
         return options;
     }
 
+    public int getCorrectAnswer() {
+        return correctAnswer;
+    }
+
     public boolean checkAnswer(int selectedOption) {
         return selectedOption == correctAnswer;
     }
@@ -58,10 +94,10 @@ class Question {
     }
 
     public static Question fromString(String str) {
-        String[] parts = str.split(";");
-        String questionText = parts[0];
-        String[] options = parts[1].split(",");
-        int correctAnswer = Integer.parseInt(parts[2]);
+        RecordFormat.Fields fields = new RecordFormat.Fields(str, ';');
+        String questionText = fields.next();
+        String[] options = fields.nextList(',');
+        int correctAnswer = fields.nextInt();
         return new Question(questionText, options, correctAnswer);
     }
 }
@@ -71,6 +107,11 @@ class QuizData {
     String quizName;
     String subject;
     int timer;
+    // Sampling: each student gets drawCount questions out of the first
+    // poolSize in the bank (0 = all of it); 0 serves the whole bank in order
+    int drawCount;
+    int poolSize;
+    long seed;
     List<Question> questions;
     
     public QuizData(String quizCode, String quizName, String subject, int timer) {
@@ -81,15 +122,31 @@ class QuizData {
         this.questions = new ArrayList<>();
     }
     
+    public boolean samples() {
+        return drawCount > 0;
+    }
+    
     @Override
     public String toString() {
-        return quizCode + ":" + quizName + ":" + subject + ":" + timer;
+        String fields = quizCode + ":" + quizName + ":" + subject + ":" + timer;
+        return samples() ? fields + ":" + drawCount + ":" + poolSize + ":" + seed : fields;
     }
     
     public static QuizData fromString(String str) {
-        String[] parts = str.split(":");
-        if (parts.length < 4) return null;
-        return new QuizData(parts[0], parts[1], parts[2], Integer.parseInt(parts[3]));
+        RecordFormat.Fields fields = new RecordFormat.Fields(str, ':');
+        String quizCode = fields.next();
+        if (!fields.hasNext()) return null;
+        String quizName = fields.next();
+        if (!fields.hasNext()) return null;
+        String subject = fields.next();
+        if (!fields.hasNext()) return null;
+        QuizData quiz = new QuizData(quizCode, quizName, subject, fields.nextInt());
+        if (fields.hasNext()) {
+            quiz.drawCount = fields.nextInt();
+            quiz.poolSize = fields.nextInt();
+            quiz.seed = fields.nextLong();
+        }
+        return quiz;
     }
 }
 
@@ -98,33 +155,37 @@ class QuizResult {
     String quizCode;
     int score;
     int totalQuestions;
-    Date timestamp;
+    // Epoch millis
+    long timestamp;
 
     public QuizResult(String username, String quizCode, int score, int totalQuestions) {
         this.username = username;
         this.quizCode = quizCode;
         this.score = score;
         this.totalQuestions = totalQuestions;
-        this.timestamp = new Date();
+        this.timestamp = System.currentTimeMillis();
     }
     
     @Override
     public String toString() {
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return username + ";" + quizCode + ";" + score + ";" + totalQuestions + ";" + sdf.format(timestamp);
+        return username + ";" + quizCode + ";" + score + ";" + totalQuestions + ";" + RecordFormat.formatTimestamp(timestamp);
     }
     
     public static QuizResult fromString(String str) {
-        String[] parts = str.split(";");
-        if (parts.length < 4) return null;
-        
-        QuizResult result = new QuizResult(parts[0], parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
-        if (parts.length > 4) {
+        RecordFormat.Fields fields = new RecordFormat.Fields(str, ';');
+        String username = fields.next();
+        if (!fields.hasNext()) return null;
+        String quizCode = fields.next();
+        if (!fields.hasNext()) return null;
+        int score = fields.nextInt();
+        if (!fields.hasNext()) return null;
+        
+        QuizResult result = new QuizResult(username, quizCode, score, fields.nextInt());
+        if (fields.hasNext()) {
             try {
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                result.timestamp = sdf.parse(parts[4]);
-            } catch (Exception e) {
-                result.timestamp = new Date();
+                result.timestamp = fields.nextTimestamp();
+            } catch (RuntimeException e) {
+                result.timestamp = System.currentTimeMillis();
             }
         }
         return result;
@@ -132,6 +193,8 @@ class QuizResult {
 }
 
 class QuizSession extends JFrame {
+    private static final QuizMetrics.Timer FINISH = QuizMetrics.timer("quiz.finish");
+
     private List<Question> questions;
     private int currentQuestionIndex = 0;
     private int correctAnswers = 0;
@@ -260,15 +323,19 @@ timer.start();
     }
     
     private void finishQuiz() {
+        long start = System.nanoTime();
         timer.stop();
         int score = (int) ((double) correctAnswers / questions.size() * 100);
-        JOptionPane.showMessageDialog(this,
-            "Quiz completed!\nScore: " + score + "%\nCorrect answers: " + correctAnswers + " out of " + questions.size(),
-            "Quiz Results",
-            JOptionPane.INFORMATION_MESSAGE);
         
         // Save result
-        parent.saveQuizResult(username, quizCode, correctAnswers, questions.size());
+        int betterThan = parent.saveQuizResult(username, quizCode, correctAnswers, questions.size());
+        FINISH.recordSince(start);
+        
+        String message = "Quiz completed!\nScore: " + score + "%\nCorrect answers: " + correctAnswers + " out of " + questions.size();
+        if (betterThan >= 0) {
+            message += "\nYou scored better than " + betterThan + "% of previous attempts";
+        }
+        JOptionPane.showMessageDialog(this, message, "Quiz Results", JOptionPane.INFORMATION_MESSAGE);
         
         dispose();
     }
@@ -292,25 +359,38 @@ timer.start();
 }
 
 public class QuizSystemGUI extends JFrame {
-    private static final String USERS_FILE = "quiz_users.txt";
-    private static final String QUIZ_DATA_FILE = "quiz_data.txt";
-    private static final String QUIZ_QUESTIONS_DIR = "quiz_questions/";
-    private static final String RESULTS_FILE = "results.txt";
     private static final String ADMIN_USERNAME = "admin";
     private static final String ADMIN_PASSWORD = "admin123";
+    private static final long STARTED_NANOS = System.nanoTime();
 
-    private List<UserData> users = new ArrayList<>();
-    private List<QuizData> quizzes = new ArrayList<>();
-    private List<QuizResult> results = new ArrayList<>();
+    // Saves run on the store's writer thread; failures are reported back on the EDT
+    private final QuizStore store = new QuizStore(new File("."), SwingUtilities::invokeLater,
+        e -> JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
     private UserData currentUser = null;
     private QuizData currentQuiz = null;
+    // Completes once users, quizzes and results are loaded
+    private CompletableFuture<Void> storeReady;
+    // Screens not built yet, by card name; each is built on first use
+    private final Map<String, Runnable> pendingPanels = new HashMap<>();
 
     // UI Components
     private JPanel mainPanel;
     private CardLayout cardLayout;
-    private DefaultTableModel userTableModel;
+    // Paged over the store, as there may be hundreds of thousands of rows
+    private PagedTableModel<UserData> userTableModel;
+    private PagedTableModel<QuizResult> resultTableModel;
     private DefaultTableModel quizTableModel;
     private DefaultTableModel questionTableModel;
+    // The quiz and position of the question in each row of the questions table
+    private final List<QuestionIndex.Hit> questionRows = new ArrayList<>();
+    private String questionSearch = "";
+    private JLabel questionSearchStatus;
+    private boolean questionIndexRequested = false;
+    private static final int MAX_SEARCH_HITS = 500;
+    private static final int SEARCH_DELAY_MILLIS = 250;
+    private DefaultTableModel statsTableModel;
+    private DefaultTableModel trendTableModel;
+    private JComboBox<String> trendQuizBox;
 
     public QuizSystemGUI() {
         // Setup the main frame
@@ -324,25 +404,54 @@ public class QuizSystemGUI extends JFrame {
         mainPanel = new JPanel(cardLayout);
         add(mainPanel);
         
-        // Create directory for quiz questions if it doesn't exist
-        new File(QUIZ_QUESTIONS_DIR).mkdirs();
-        
-        // Create different screens
+        // Create the login screen now and the others when first shown
         createLoginPanel();
-        createRegisterPanel();
-        createAdminDashboardPanel();
-        createUserDashboardPanel();
-        createQuizCodePanel();
+        pendingPanels.put("Register", this::createRegisterPanel);
+        pendingPanels.put("AdminDashboard", this::createAdminDashboardPanel);
+        pendingPanels.put("UserDashboard", this::createUserDashboardPanel);
+        pendingPanels.put("QuizCode", this::createQuizCodePanel);
         
-        // Load data
-        loadUsers();
-        loadQuizData();
-        loadResults();
+        // Load data in the background while the login screen is up
+        loadStore();
+        
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                System.out.println("First frame shown after " + (System.nanoTime() - STARTED_NANOS) / 1_000_000 + " ms");
+            }
+        });
         
         // Show login screen
         cardLayout.show(mainPanel, "Login");
         setVisible(true);
     }
+    
+    private void showCard(String name) {
+        ensurePanel(name);
+        cardLayout.show(mainPanel, name);
+    }
+    
+    private void ensurePanel(String name) {
+        Runnable createPanel = pendingPanels.remove(name);
+        if (createPanel != null) {
+            createPanel.run();
+        }
+    }
+    
+    // Tells the user to wait if the data files are still loading
+    private boolean storeLoaded() {
+        if (!storeReady.isDone()) {
+            JOptionPane.showMessageDialog(this, "Still loading data, please try again in a moment", "Loading", JOptionPane.INFORMATION_MESSAGE);
+            return false;
+        }
+        if (storeReady.isCompletedExceptionally()) {
+            // Changes made now could overwrite the data that failed to load
+            JOptionPane.showMessageDialog(this, "The data could not be loaded. Please fix the problem reported at startup and restart.",
+                "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        return true;
+    }
 
     private void createLoginPanel() {
         JPanel loginPanel = new JPanel();
@@ -423,27 +532,30 @@ public class QuizSystemGUI extends JFrame {
         });
     
         registerButton.addActionListener(e -> {
-            cardLayout.show(mainPanel, "Register");
+            showCard("Register");
         });
     
         mainPanel.add(loginPanel, "Login");
     }
     
     private void performLogin(JTextField usernameField, JPasswordField passwordField) {
+        if (!storeLoaded()) return;
+        
         String username = usernameField.getText().trim();
         String password = new String(passwordField.getPassword()).trim();
 
         // Admin login
         if (username.equals(ADMIN_USERNAME) && password.equals(ADMIN_PASSWORD)) {
             updateAdminDashboard();
-            cardLayout.show(mainPanel, "AdminDashboard");
+            showCard("AdminDashboard");
+            prepareQuestionIndex();
             return;
         }
         
         // User login
         currentUser = login(username, password);
         if (currentUser != null) {
-            cardLayout.show(mainPanel, "QuizCode");
+            showCard("QuizCode");
         } else {
             JOptionPane.showMessageDialog(this,
                 "Invalid username or password",
@@ -533,8 +645,18 @@ public class QuizSystemGUI extends JFrame {
                     JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            if (!storeLoaded()) return;
             
-            boolean success = createAccount(fullName, username, password);
+            boolean success;
+            try {
+                success = createAccount(fullName, username, password);
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, 
+                    "Error creating account: " + ex.getMessage(), 
+                    "Registration Error", 
+                    JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             if (success) {
                 JOptionPane.showMessageDialog(this, 
                     "Account created successfully", 
@@ -630,7 +752,7 @@ public class QuizSystemGUI extends JFrame {
             // Find quiz with the given code
             currentQuiz = findQuizByCode(code);
             if (currentQuiz != null) {
-                List<Question> quizQuestions = loadQuizQuestions(currentQuiz.quizCode);
+                List<Question> quizQuestions = drawQuestions(currentQuiz, currentUser.username);
                 if (quizQuestions.isEmpty()) {
                     JOptionPane.showMessageDialog(this, "This quiz has no questions", "Error", JOptionPane.ERROR_MESSAGE);
                 } else {
@@ -646,7 +768,7 @@ public class QuizSystemGUI extends JFrame {
         
         viewDashboardButton.addActionListener(e -> {
             updateUserDashboard();
-            cardLayout.show(mainPanel, "UserDashboard");
+            showCard("UserDashboard");
         });
         
         logoutButton.addActionListener(e -> {
@@ -690,10 +812,12 @@ public class QuizSystemGUI extends JFrame {
         JButton addQuizButton = new JButton("Add New Quiz");
         JButton editQuizButton = new JButton("Edit Selected Quiz");
         JButton removeQuizButton = new JButton("Remove Selected Quiz");
+        JButton adminLeaderboardButton = new JButton("Leaderboard");
         
         quizButtonPanel.add(addQuizButton);
         quizButtonPanel.add(editQuizButton);
         quizButtonPanel.add(removeQuizButton);
+        quizButtonPanel.add(adminLeaderboardButton);
         
         quizPanel.add(quizScrollPane, BorderLayout.CENTER);
         quizPanel.add(quizButtonPanel, BorderLayout.SOUTH);
@@ -710,41 +834,158 @@ public class QuizSystemGUI extends JFrame {
         JButton selectQuizButton = new JButton("Select Quiz");
         JButton addQuestionButton = new JButton("Add Question");
         JButton removeQuestionButton = new JButton("Remove Selected Question");
+        JButton importQuestionsButton = new JButton("Import");
         
         questionButtonPanel.add(selectQuizButton);
         questionButtonPanel.add(addQuestionButton);
         questionButtonPanel.add(removeQuestionButton);
+        questionButtonPanel.add(importQuestionsButton);
         
+        JPanel questionSearchBar = searchBar(text -> {
+            questionSearch = text;
+            updateQuestionsTable();
+        });
+        questionSearchStatus = new JLabel();
+        questionSearchBar.add(questionSearchStatus);
+        
+        questionsPanel.add(questionSearchBar, BorderLayout.NORTH);
         questionsPanel.add(questionScrollPane, BorderLayout.CENTER);
         questionsPanel.add(questionButtonPanel, BorderLayout.SOUTH);
         
         // User Information Tab
         JPanel userInfoPanel = new JPanel(new BorderLayout());
-        userTableModel = new DefaultTableModel(
-            new Object[] {"Username", "Full Name", "Last Login", "Quizzes Taken", "High Score"}, 0);
+        userTableModel = new PagedTableModel<>(new PagedTableModel.Source<UserData>() {
+            @Override
+            public int size() {
+                return store.userCount();
+            }
+
+            @Override
+            public List<UserData> page(int from, int to) {
+                return store.usersPage(from, to);
+            }
+
+            @Override
+            public int[] select(String text, int column, boolean descending) {
+                // The columns are in the order of UserRepository.Order
+                return store.selectUsers(text, column < 0 ? null : UserRepository.Order.values()[column], descending);
+            }
+        }, Arrays.asList(
+            new PagedTableModel.Column<UserData>("Username", String.class, user -> user.username),
+            new PagedTableModel.Column<UserData>("Full Name", String.class, user -> user.fullName),
+            new PagedTableModel.Column<UserData>("Last Login", String.class,
+                user -> RecordFormat.formatTimestamp(user.lastLogin)),
+            new PagedTableModel.Column<UserData>("Quizzes Taken", Integer.class, user -> user.quizzesTaken),
+            new PagedTableModel.Column<UserData>("High Score", String.class, user -> user.highScore + "%")),
+            this::showTableError);
         JTable userTable = new JTable(userTableModel);
+        userTableModel.sortOnHeaderClick(userTable);
         userTable.setPreferredScrollableViewportSize(new Dimension(680, 350));
         JScrollPane userScrollPane = new JScrollPane(userTable);
+        userInfoPanel.add(searchBar(userTableModel::setFilter), BorderLayout.NORTH);
         userInfoPanel.add(userScrollPane, BorderLayout.CENTER);
         
+        // Results Tab
+        JPanel resultsPanel = new JPanel(new BorderLayout());
+        resultTableModel = new PagedTableModel<>(new PagedTableModel.Source<QuizResult>() {
+            @Override
+            public int size() {
+                return store.resultCount();
+            }
+
+            @Override
+            public List<QuizResult> page(int from, int to) {
+                return store.resultsPage(from, to);
+            }
+
+            @Override
+            public int[] select(String text, int column, boolean descending) {
+                // The columns are in the order of ResultTable.Order
+                return store.selectResults(text, column < 0 ? null : ResultTable.Order.values()[column], descending);
+            }
+        }, Arrays.asList(
+            new PagedTableModel.Column<QuizResult>("Username", String.class, result -> result.username),
+            new PagedTableModel.Column<QuizResult>("Quiz Code", String.class, result -> result.quizCode),
+            new PagedTableModel.Column<QuizResult>("Score", String.class,
+                result -> result.score + " / " + result.totalQuestions + " (" + QuizStats.percentOf(result) + "%)"),
+            new PagedTableModel.Column<QuizResult>("Date", String.class,
+                result -> RecordFormat.formatTimestamp(result.timestamp))),
+            this::showTableError);
+        JTable resultTable = new JTable(resultTableModel);
+        resultTableModel.sortOnHeaderClick(resultTable);
+        resultTable.setPreferredScrollableViewportSize(new Dimension(680, 350));
+        resultsPanel.add(searchBar(resultTableModel::setFilter), BorderLayout.NORTH);
+        resultsPanel.add(new JScrollPane(resultTable), BorderLayout.CENTER);
+        
+        // Quiz Statistics Tab
+        JPanel statsPanel = new JPanel(new BorderLayout());
+        statsTableModel = new DefaultTableModel(
+            new Object[] {"Quiz Code", "Attempts", "Average", "Std Dev", "Lowest", "Median", "90th Percentile", "Highest"}, 0);
+        JTable statsTable = new JTable(statsTableModel);
+        statsTable.setPreferredScrollableViewportSize(new Dimension(680, 350));
+        JScrollPane statsScrollPane = new JScrollPane(statsTable);
+        statsPanel.add(statsScrollPane, BorderLayout.CENTER);
+        
+        // Trends Tab
+        JPanel trendPanel = new JPanel(new BorderLayout());
+        JPanel trendQueryPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        trendQuizBox = new JComboBox<>();
+        JComboBox<String> trendPeriodBox = new JComboBox<>(new String[] {"Hourly", "Daily", "Weekly"});
+        trendPeriodBox.setSelectedIndex(1);
+        JTextField trendFromField = new JTextField(LocalDate.now().minusDays(30).toString(), 8);
+        JTextField trendToField = new JTextField(LocalDate.now().toString(), 8);
+        JButton showTrendButton = new JButton("Show");
+        trendQueryPanel.add(new JLabel("Quiz:"));
+        trendQueryPanel.add(trendQuizBox);
+        trendQueryPanel.add(trendPeriodBox);
+        trendQueryPanel.add(new JLabel("From:"));
+        trendQueryPanel.add(trendFromField);
+        trendQueryPanel.add(new JLabel("To:"));
+        trendQueryPanel.add(trendToField);
+        trendQueryPanel.add(showTrendButton);
+        trendTableModel = new DefaultTableModel(
+            new Object[] {"Period Starting", "Attempts", "Average", "Lowest", "Highest"}, 0);
+        JTable trendTable = new JTable(trendTableModel);
+        trendTable.setPreferredScrollableViewportSize(new Dimension(680, 350));
+        trendPanel.add(trendQueryPanel, BorderLayout.NORTH);
+        trendPanel.add(new JScrollPane(trendTable), BorderLayout.CENTER);
+        showTrendButton.addActionListener(e -> showTrend((String) trendQuizBox.getSelectedItem(),
+            ResultRollups.Period.values()[trendPeriodBox.getSelectedIndex()],
+            trendFromField.getText().trim(), trendToField.getText().trim()));
+        
         tabbedPane.addTab("Quiz Management", quizPanel);
         tabbedPane.addTab("Questions Management", questionsPanel);
         tabbedPane.addTab("User Information", userInfoPanel);
+        tabbedPane.addTab("Results", resultsPanel);
+        tabbedPane.addTab("Quiz Statistics", statsPanel);
+        tabbedPane.addTab("Trends", trendPanel);
         
         dashboardPanel.add(tabbedPane, BorderLayout.CENTER);
         
+        JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+        JButton exportButton = new JButton("Export...");
+        exportButton.setPreferredSize(new Dimension(200, 40));
+        JProgressBar exportProgress = new JProgressBar(0, 100);
+        exportProgress.setStringPainted(true);
+        exportProgress.setVisible(false);
         JButton logoutButton = new JButton("Logout");
         logoutButton.setPreferredSize(new Dimension(200, 40));
-        dashboardPanel.add(logoutButton, BorderLayout.SOUTH);
+        bottomPanel.add(exportButton);
+        bottomPanel.add(exportProgress);
+        bottomPanel.add(logoutButton);
+        dashboardPanel.add(bottomPanel, BorderLayout.SOUTH);
         
         // Add action listeners
+        exportButton.addActionListener(e -> exportReport(exportButton, exportProgress));
         addQuizButton.addActionListener(e -> addQuiz());
         editQuizButton.addActionListener(e -> editQuiz(quizTable.getSelectedRow()));
         removeQuizButton.addActionListener(e -> removeQuiz(quizTable.getSelectedRow()));
+        adminLeaderboardButton.addActionListener(e -> showLeaderboard());
         
         selectQuizButton.addActionListener(e -> selectQuizForQuestions());
         addQuestionButton.addActionListener(e -> addQuestion());
         removeQuestionButton.addActionListener(e -> removeQuestion(questionTable.getSelectedRow()));
+        importQuestionsButton.addActionListener(e -> importQuestions(importQuestionsButton));
         
         logoutButton.addActionListener(e -> {
             currentQuiz = null;
@@ -786,9 +1027,12 @@ public class QuizSystemGUI extends JFrame {
         enterQuizCodeButton.setPreferredSize(new Dimension(200, 50));
         JButton viewResultsButton = new JButton("View My Results");
         viewResultsButton.setPreferredSize(new Dimension(200, 50));
+        JButton leaderboardButton = new JButton("Leaderboard");
+        leaderboardButton.setPreferredSize(new Dimension(200, 50));
         
         controlPanel.add(enterQuizCodeButton);
         controlPanel.add(viewResultsButton);
+        controlPanel.add(leaderboardButton);
         
         // Logout button
         JButton logoutButton = new JButton("Logout");
@@ -813,13 +1057,15 @@ public class QuizSystemGUI extends JFrame {
         
         // Add action listeners
         enterQuizCodeButton.addActionListener(e -> {
-            cardLayout.show(mainPanel, "QuizCode");
+            showCard("QuizCode");
         });
         
         viewResultsButton.addActionListener(e -> {
             updateUserResults(resultsTableModel);
         });
         
+        leaderboardButton.addActionListener(e -> showLeaderboard());
+        
         logoutButton.addActionListener(e -> {
             currentUser = null;
             cardLayout.show(mainPanel, "Login");
@@ -832,29 +1078,66 @@ public class QuizSystemGUI extends JFrame {
         // Clear table
         model.setRowCount(0);
         
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        for (QuizResult result : results) {
-            if (result.username.equals(currentUser.username)) {
-                // Get quiz name
-                String quizName = "Unknown";
-                for (QuizData quiz : quizzes) {
-                    if (quiz.quizCode.equals(result.quizCode)) {
-                        quizName = quiz.quizName;
-                        break;
-                    }
-                }
-                
-                model.addRow(new Object[] {
-                    quizName,
-                    result.score + " / " + result.totalQuestions + " (" + (int)((double)result.score / result.totalQuestions * 100) + "%)",
-                    sdf.format(result.timestamp)
-                });
-            }
+        for (QuizResult result : store.resultsFor(currentUser.username)) {
+            // Get quiz name
+            QuizData quiz = store.findQuizByCode(result.quizCode);
+            String quizName = quiz != null ? quiz.quizName : "Unknown";
+            
+            model.addRow(new Object[] {
+                quizName,
+                result.score + " / " + result.totalQuestions + " (" + (int)((double)result.score / result.totalQuestions * 100) + "%)",
+                RecordFormat.formatTimestamp(result.timestamp)
+            });
         }
     }
     
+    private void showLeaderboard() {
+        List<QuizData> quizzes = store.quizzes();
+        if (quizzes.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No quizzes available", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        String[] quizNames = new String[quizzes.size()];
+        for (int i = 0; i < quizzes.size(); i++) {
+            quizNames[i] = quizzes.get(i).quizName;
+        }
+        
+        JComboBox<String> comboBox = new JComboBox<>(quizNames);
+        int result = JOptionPane.showConfirmDialog(this, comboBox, "Select Quiz", JOptionPane.OK_CANCEL_OPTION);
+        if (result != JOptionPane.OK_OPTION || comboBox.getSelectedIndex() < 0) return;
+        
+        QuizData quiz = quizzes.get(comboBox.getSelectedIndex());
+        Leaderboard leaderboard = store.leaderboard(quiz.quizCode);
+        
+        DefaultTableModel model = new DefaultTableModel(new Object[] {"Rank", "Username", "Score", "Date"}, 0);
+        int rank = 1;
+        for (Leaderboard.Entry entry : leaderboard.top(10)) {
+            model.addRow(new Object[] {
+                rank++,
+                entry.username,
+                entry.score + " / " + entry.totalQuestions + " (" + entry.percent + "%)",
+                RecordFormat.formatTimestamp(entry.timestamp)
+            });
+        }
+        
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        JScrollPane scrollPane = new JScrollPane(new JTable(model));
+        scrollPane.setPreferredSize(new Dimension(500, 200));
+        panel.add(scrollPane, BorderLayout.CENTER);
+        if (currentUser != null) {
+            int userRank = leaderboard.rank(currentUser.username);
+            panel.add(new JLabel(userRank > 0
+                ? "Your rank: " + userRank + " of " + leaderboard.size()
+                : "You have not taken this quiz yet"), BorderLayout.SOUTH);
+        }
+        
+        JOptionPane.showMessageDialog(this, panel, "Leaderboard - " + quiz.quizName, JOptionPane.PLAIN_MESSAGE);
+    }
+    
     private void updateUserDashboard() {
         if (currentUser == null) return;
+        ensurePanel("UserDashboard");
         
         for (Component component : mainPanel.getComponents()) {
             if (component.getName() != null && component.getName().equals("UserDashboard")) {
@@ -884,9 +1167,11 @@ public class QuizSystemGUI extends JFrame {
     }
     
     private void updateAdminDashboard() {
+        ensurePanel("AdminDashboard");
+        
         // Update quiz table
         quizTableModel.setRowCount(0);
-        for (QuizData quiz : quizzes) {
+        for (QuizData quiz : store.quizzes()) {
             quizTableModel.addRow(new Object[] {
                 quiz.quizCode,
                 quiz.quizName,
@@ -895,18 +1180,94 @@ public class QuizSystemGUI extends JFrame {
             });
         }
         
-        // Update user table
-        userTableModel.setRowCount(0);
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        for (UserData user : users) {
-            userTableModel.addRow(new Object[] {
-                user.username,
-                user.fullName,
-                sdf.format(user.lastLogin),
-                user.quizzesTaken,
-                user.highScore + "%"
+        // Update statistics table
+        statsTableModel.setRowCount(0);
+        for (QuizData quiz : store.quizzes()) {
+            QuizStats stats = store.statsFor(quiz.quizCode);
+            if (stats.count() == 0) {
+                statsTableModel.addRow(new Object[] {quiz.quizCode, 0, "-", "-", "-", "-", "-", "-"});
+                continue;
+            }
+            statsTableModel.addRow(new Object[] {
+                quiz.quizCode,
+                stats.count(),
+                String.format("%.1f%%", stats.mean()),
+                String.format("%.1f", stats.standardDeviation()),
+                stats.min() + "%",
+                stats.percentile(0.5) + "%",
+                stats.percentile(0.9) + "%",
+                stats.max() + "%"
             });
         }
+        
+        // Update the quizzes trends can be shown for, keeping the selection
+        Object selectedQuiz = trendQuizBox.getSelectedItem();
+        trendQuizBox.removeAllItems();
+        for (QuizData quiz : store.quizzes()) {
+            trendQuizBox.addItem(quiz.quizCode);
+        }
+        if (selectedQuiz != null) {
+            trendQuizBox.setSelectedItem(selectedQuiz);
+        }
+        
+        // Update user and result tables
+        userTableModel.refresh();
+        resultTableModel.refresh();
+    }
+    
+    private void showTrend(String quizCode, ResultRollups.Period period, String fromText, String toText) {
+        if (quizCode == null) return;
+        LocalDate from;
+        LocalDate to;
+        try {
+            from = LocalDate.parse(fromText);
+            to = LocalDate.parse(toText);
+        } catch (DateTimeException e) {
+            JOptionPane.showMessageDialog(this, "Please enter dates as yyyy-mm-dd", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        DateTimeFormatter format = DateTimeFormatter.ofPattern(
+            period == ResultRollups.Period.HOUR ? "yyyy-MM-dd HH:mm" : "yyyy-MM-dd");
+        trendTableModel.setRowCount(0);
+        for (ResultRollups.Bucket bucket : store.trend(quizCode, period, from, to)) {
+            trendTableModel.addRow(new Object[] {
+                bucket.start().format(format),
+                bucket.count,
+                String.format("%.1f%%", bucket.mean()),
+                bucket.min + "%",
+                bucket.max + "%"
+            });
+        }
+    }
+    
+    // A "Search:" field calling back with its lower-cased text once typing
+    // pauses, rather than on every keystroke
+    private static JPanel searchBar(Consumer<String> onChange) {
+        JTextField searchField = new JTextField(20);
+        javax.swing.Timer pause = new javax.swing.Timer(SEARCH_DELAY_MILLIS,
+            e -> onChange.accept(searchField.getText().trim().toLowerCase()));
+        pause.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                changedUpdate(e);
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                changedUpdate(e);
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                pause.restart();
+            }
+        });
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        panel.add(new JLabel("Search:"));
+        panel.add(searchField);
+        return panel;
     }
     
     private void addQuiz() {
@@ -914,6 +1275,8 @@ public class QuizSystemGUI extends JFrame {
         JTextField nameField = new JTextField();
         JTextField subjectField = new JTextField();
         JTextField timerField = new JTextField("5");
+        JTextField drawField = new JTextField("0");
+        JTextField poolField = new JTextField("0");
         
         JPanel panel = new JPanel(new GridLayout(0, 1));
         panel.add(new JLabel("Quiz Code:"));
@@ -924,6 +1287,7 @@ public class QuizSystemGUI extends JFrame {
         panel.add(subjectField);
         panel.add(new JLabel("Timer (minutes):"));
         panel.add(timerField);
+        addSamplingFields(panel, drawField, poolField);
         
         int result = JOptionPane.showConfirmDialog(this, panel, "Add New Quiz", JOptionPane.OK_CANCEL_OPTION);
         if (result == JOptionPane.OK_OPTION) {
@@ -931,6 +1295,8 @@ public class QuizSystemGUI extends JFrame {
             String name = nameField.getText().trim();
             String subject = subjectField.getText().trim();
             int timer;
+            int drawCount;
+            int poolSize;
             
             try {
                 timer = Integer.parseInt(timerField.getText().trim());
@@ -938,6 +1304,13 @@ public class QuizSystemGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "Timer must be a number", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            try {
+                drawCount = Integer.parseInt(drawField.getText().trim());
+                poolSize = Integer.parseInt(poolField.getText().trim());
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(this, "Question counts must be numbers", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             
             if (code.isEmpty() || name.isEmpty() || subject.isEmpty()) {
                 JOptionPane.showMessageDialog(this, "All fields are required", "Error", JOptionPane.ERROR_MESSAGE);
@@ -945,22 +1318,28 @@ public class QuizSystemGUI extends JFrame {
             }
             
             // Check if quiz code already exists
-            for (QuizData quiz : quizzes) {
-                if (quiz.quizCode.equals(code)) {
-                    JOptionPane.showMessageDialog(this, "Quiz code already exists", "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
-                }
-            }
-            
             QuizData newQuiz = new QuizData(code, name, subject, timer);
-            quizzes.add(newQuiz);
-            saveQuizData();
+            newQuiz.drawCount = Math.max(0, drawCount);
+            newQuiz.poolSize = Math.max(0, poolSize);
+            newQuiz.seed = new Random().nextLong();
+            if (!store.addQuiz(newQuiz)) {
+                JOptionPane.showMessageDialog(this, "Quiz code already exists", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             updateAdminDashboard();
             
             JOptionPane.showMessageDialog(this, "Quiz added successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
         }
     }
     
+    // Each student gets drawCount questions picked from the first poolSize in the bank
+    private static void addSamplingFields(JPanel panel, JTextField drawField, JTextField poolField) {
+        panel.add(new JLabel("Questions per student (0 = all, in order):"));
+        panel.add(drawField);
+        panel.add(new JLabel("Drawn from the first (0 = whole bank):"));
+        panel.add(poolField);
+    }
+    
     private void editQuiz(int row) {
         if (row == -1) {
             JOptionPane.showMessageDialog(this, "Please select a quiz to edit", "Error", JOptionPane.ERROR_MESSAGE);
@@ -968,20 +1347,15 @@ public class QuizSystemGUI extends JFrame {
         }
         
         String code = (String) quizTableModel.getValueAt(row, 0);
-        QuizData quiz = null;
-        
-        for (QuizData q : quizzes) {
-            if (q.quizCode.equals(code)) {
-                quiz = q;
-                break;
-            }
-        }
+        QuizData quiz = store.findQuizByCode(code);
         
         if (quiz == null) return;
         
         JTextField nameField = new JTextField(quiz.quizName);
         JTextField subjectField = new JTextField(quiz.subject);
         JTextField timerField = new JTextField(String.valueOf(quiz.timer));
+        JTextField drawField = new JTextField(String.valueOf(quiz.drawCount));
+        JTextField poolField = new JTextField(String.valueOf(quiz.poolSize));
         
         JPanel panel = new JPanel(new GridLayout(0, 1));
         panel.add(new JLabel("Quiz Code: " + quiz.quizCode + " (cannot be changed)"));
@@ -991,12 +1365,15 @@ public class QuizSystemGUI extends JFrame {
         panel.add(subjectField);
         panel.add(new JLabel("Timer (minutes):"));
         panel.add(timerField);
+        addSamplingFields(panel, drawField, poolField);
         
         int result = JOptionPane.showConfirmDialog(this, panel, "Edit Quiz", JOptionPane.OK_CANCEL_OPTION);
         if (result == JOptionPane.OK_OPTION) {
             String name = nameField.getText().trim();
             String subject = subjectField.getText().trim();
             int timer;
+            int drawCount;
+            int poolSize;
             
             try {
                 timer = Integer.parseInt(timerField.getText().trim());
@@ -1004,6 +1381,13 @@ public class QuizSystemGUI extends JFrame {
                 JOptionPane.showMessageDialog(this, "Timer must be a number", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            try {
+                drawCount = Integer.parseInt(drawField.getText().trim());
+                poolSize = Integer.parseInt(poolField.getText().trim());
+            } catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(this, "Question counts must be numbers", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             
             if (name.isEmpty() || subject.isEmpty()) {
                 JOptionPane.showMessageDialog(this, "All fields are required", "Error", JOptionPane.ERROR_MESSAGE);
@@ -1013,8 +1397,14 @@ public class QuizSystemGUI extends JFrame {
             quiz.quizName = name;
             quiz.subject = subject;
             quiz.timer = timer;
+            quiz.drawCount = Math.max(0, drawCount);
+            quiz.poolSize = Math.max(0, poolSize);
+            if (quiz.samples() && quiz.seed == 0) {
+                // Quizzes from before sampling have no seed of their own
+                quiz.seed = new Random().nextLong();
+            }
             
-            saveQuizData();
+            saveQuiz(quiz);
             updateAdminDashboard();
             
             JOptionPane.showMessageDialog(this, "Quiz updated successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -1035,21 +1425,8 @@ public class QuizSystemGUI extends JFrame {
             JOptionPane.YES_NO_OPTION);
             
         if (confirm == JOptionPane.YES_OPTION) {
-            // Remove quiz from list
-            for (int i = 0; i < quizzes.size(); i++) {
-                if (quizzes.get(i).quizCode.equals(code)) {
-                    quizzes.remove(i);
-                    break;
-                }
-            }
-            
-            // Remove quiz questions file
-            File questionsFile = new File(QUIZ_QUESTIONS_DIR + code + ".txt");
-            if (questionsFile.exists()) {
-                questionsFile.delete();
-            }
-            
-            saveQuizData();
+            // Remove quiz and its questions
+            store.removeQuiz(code);
             updateAdminDashboard();
             
             JOptionPane.showMessageDialog(this, "Quiz removed successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -1057,6 +1434,7 @@ public class QuizSystemGUI extends JFrame {
     }
     
     private void selectQuizForQuestions() {
+        List<QuizData> quizzes = store.quizzes();
         if (quizzes.isEmpty()) {
             JOptionPane.showMessageDialog(this, "No quizzes available", "Error", JOptionPane.ERROR_MESSAGE);
             return;
@@ -1080,13 +1458,7 @@ public class QuizSystemGUI extends JFrame {
         if (result == JOptionPane.OK_OPTION) {
             int selectedIndex = comboBox.getSelectedIndex();
             if (selectedIndex >= 0) {
-                String selectedCode = quizCodes[selectedIndex];
-                for (QuizData quiz : quizzes) {
-                    if (quiz.quizCode.equals(selectedCode)) {
-                        currentQuiz = quiz;
-                        break;
-                    }
-                }
+                currentQuiz = store.findQuizByCode(quizCodes[selectedIndex]);
                 
                 // Update questions table
                 updateQuestionsTable();
@@ -1095,22 +1467,213 @@ public class QuizSystemGUI extends JFrame {
     }
     
     private void updateQuestionsTable() {
+        if (!questionSearch.isEmpty()) {
+            searchQuestions(questionSearch);
+            return;
+        }
+        questionSearchStatus.setText("");
         if (currentQuiz == null) return;
         
         questionTableModel.setRowCount(0);
+        questionRows.clear();
         List<Question> questions = loadQuizQuestions(currentQuiz.quizCode);
         
-        for (Question question : questions) {
-            String options = String.join(", ", question.getOptions());
-            questionTableModel.addRow(new Object[] {
-                currentQuiz.quizCode,
-                question.getQuestionText(),
-                options,
-                question.getOptions()[0] // This is a placeholder; we don't show the correct answer in the table
-            });
+        for (int i = 0; i < questions.size(); i++) {
+            addQuestionRow(new QuestionIndex.Hit(currentQuiz.quizCode, i), questions.get(i));
         }
     }
     
+    private void addQuestionRow(QuestionIndex.Hit hit, Question question) {
+        String options = String.join(", ", question.getOptions());
+        questionRows.add(hit);
+        questionTableModel.addRow(new Object[] {
+            hit.quizCode,
+            question.getQuestionText(),
+            options,
+            question.getOptions()[0] // This is a placeholder; we don't show the correct answer in the table
+        });
+    }
+    
+    // Builds the search index in the background when an admin logs in, so
+    // that the first search is quick and new questions are checked for repeats
+    private void prepareQuestionIndex() {
+        if (questionIndexRequested) return;
+        questionIndexRequested = true;
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                store.questionIndex();
+                return null;
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // Tried again on the next search, which reports the error
+                    questionIndexRequested = false;
+                }
+            }
+        }.execute();
+    }
+    
+    // Shows the questions of every quiz matching the search box
+    private void searchQuestions(String query) {
+        questionSearchStatus.setText("Searching...");
+        
+        // The first search may wait for the index to be built
+        new SwingWorker<List<QuestionIndex.Hit>, Void>() {
+            private final List<Question> questions = new ArrayList<>();
+            
+            @Override
+            protected List<QuestionIndex.Hit> doInBackground() throws IOException {
+                List<QuestionIndex.Hit> hits = store.searchQuestions(query, MAX_SEARCH_HITS);
+                for (QuestionIndex.Hit hit : hits) {
+                    List<Question> quizQuestions = store.loadQuizQuestions(hit.quizCode);
+                    questions.add(hit.position < quizQuestions.size() ? quizQuestions.get(hit.position) : null);
+                }
+                return hits;
+            }
+            
+            @Override
+            protected void done() {
+                // A later keystroke has started another search
+                if (!query.equals(questionSearch)) return;
+                try {
+                    List<QuestionIndex.Hit> hits = get();
+                    questionTableModel.setRowCount(0);
+                    questionRows.clear();
+                    for (int i = 0; i < hits.size(); i++) {
+                        if (questions.get(i) != null) {
+                            addQuestionRow(hits.get(i), questions.get(i));
+                        }
+                    }
+                    questionSearchStatus.setText(hits.size() == MAX_SEARCH_HITS
+                        ? "Showing the first " + MAX_SEARCH_HITS + " matches" : hits.size() + " match(es)");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    questionSearchStatus.setText("");
+                    JOptionPane.showMessageDialog(QuizSystemGUI.this, "Error searching questions: " + e.getCause().getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+    
+    private void importQuestions(JButton importButton) {
+        if (currentQuiz == null) {
+            JOptionPane.showMessageDialog(this, "Please select a quiz first", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new FileNameExtensionFilter("Question banks (*.csv, *.jsonl)", "csv", "jsonl", "ndjson"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        File file = chooser.getSelectedFile();
+        String quizCode = currentQuiz.quizCode;
+        importButton.setEnabled(false);
+        importButton.setText("Importing...");
+        
+        // Parsing a large bank takes a while, so keep it off the event thread
+        new SwingWorker<QuestionImporter.Report, Void>() {
+            @Override
+            protected QuestionImporter.Report doInBackground() throws IOException {
+                return new QuestionImporter().importFile(store, quizCode, file);
+            }
+            
+            @Override
+            protected void done() {
+                importButton.setEnabled(true);
+                importButton.setText("Import");
+                try {
+                    QuestionImporter.Report report = get();
+                    updateQuestionsTable();
+                    JOptionPane.showMessageDialog(QuizSystemGUI.this, report.toString(), "Import Finished",
+                        report.rejected > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(QuizSystemGUI.this, "Error importing questions: " + e.getCause().getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+    
+    private void exportReport(JButton exportButton, JProgressBar progressBar) {
+        String[] reports = {"All results", "Results for one quiz", "Users", "Quiz statistics"};
+        JComboBox<String> reportBox = new JComboBox<>(reports);
+        List<QuizData> quizzes = store.quizzes();
+        JComboBox<String> quizBox = new JComboBox<>();
+        for (QuizData quiz : quizzes) {
+            quizBox.addItem(quiz.quizCode);
+        }
+        quizBox.setEnabled(false);
+        reportBox.addActionListener(e -> quizBox.setEnabled(reportBox.getSelectedIndex() == 1));
+        
+        JPanel panel = new JPanel(new GridLayout(0, 1));
+        panel.add(new JLabel("Report:"));
+        panel.add(reportBox);
+        panel.add(new JLabel("Quiz:"));
+        panel.add(quizBox);
+        int result = JOptionPane.showConfirmDialog(this, panel, "Export", JOptionPane.OK_CANCEL_OPTION);
+        if (result != JOptionPane.OK_OPTION) return;
+        int choice = reportBox.getSelectedIndex();
+        if (choice == 1 && quizBox.getSelectedItem() == null) return;
+        ReportExporter.Report report = choice <= 1 ? ReportExporter.Report.RESULTS
+            : choice == 2 ? ReportExporter.Report.USERS : ReportExporter.Report.QUIZZES;
+        String quizCode = choice == 1 ? (String) quizBox.getSelectedItem() : null;
+        
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export " + reports[choice]);
+        chooser.setSelectedFile(new File(report.name().toLowerCase() + ".csv"));
+        chooser.setFileFilter(new FileNameExtensionFilter("CSV or JSON, optionally gzipped (*.csv, *.json, *.gz)",
+            "csv", "json", "gz"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = chooser.getSelectedFile();
+        
+        exportButton.setEnabled(false);
+        progressBar.setValue(0);
+        progressBar.setVisible(true);
+        progressBar.getParent().revalidate();
+        
+        // Millions of rows take a while to write, so keep it off the event thread
+        SwingWorker<Long, Void> worker = new SwingWorker<Long, Void>() {
+            @Override
+            protected Long doInBackground() throws IOException {
+                return new ReportExporter().export(store, report, quizCode, file,
+                    (done, total) -> setProgress(total == 0 ? 100 : (int) (done * 100 / total)));
+            }
+            
+            @Override
+            protected void done() {
+                exportButton.setEnabled(true);
+                progressBar.setVisible(false);
+                try {
+                    long rows = get();
+                    JOptionPane.showMessageDialog(QuizSystemGUI.this, "Exported " + rows + " row(s) to " + file.getName(),
+                        "Export Finished", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    JOptionPane.showMessageDialog(QuizSystemGUI.this, "Error exporting: " + e.getCause().getMessage(),
+                        "Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        worker.execute();
+    }
+    
     private void addQuestion() {
         if (currentQuiz == null) {
             JOptionPane.showMessageDialog(this, "Please select a quiz first", "Error", JOptionPane.ERROR_MESSAGE);
@@ -1165,6 +1728,15 @@ public class QuizSystemGUI extends JFrame {
             // Get correct answer index (1-based in the UI, so convert to 0-based for internal use)
             int correctAnswer = correctAnswerBox.getSelectedIndex() + 1;
             
+            List<QuestionIndex.Hit> duplicates = findDuplicates(questionText);
+            if (!duplicates.isEmpty()) {
+                int confirm = JOptionPane.showConfirmDialog(this,
+                    "A question with the same text is already in quiz " + duplicates.get(0).quizCode + ". Add it anyway?",
+                    "Duplicate Question",
+                    JOptionPane.YES_NO_OPTION);
+                if (confirm != JOptionPane.YES_OPTION) return;
+            }
+            
             // Create and save question
             Question question = new Question(questionText, optionsArray, correctAnswer);
             saveQuizQuestion(currentQuiz.quizCode, question);
@@ -1180,11 +1752,7 @@ public class QuizSystemGUI extends JFrame {
             return;
         }
         
-        if (currentQuiz == null) {
-            JOptionPane.showMessageDialog(this, "No quiz selected", "Error", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-        
+        QuestionIndex.Hit target = questionRows.get(row);
         String questionText = (String) questionTableModel.getValueAt(row, 1);
         
         int confirm = JOptionPane.showConfirmDialog(this, 
@@ -1194,17 +1762,18 @@ public class QuizSystemGUI extends JFrame {
             
         if (confirm == JOptionPane.YES_OPTION) {
             // Load all questions
-            List<Question> questions = loadQuizQuestions(currentQuiz.quizCode);
-            // Remove the selected question
-            for (int i = 0; i < questions.size(); i++) {
-                if (questions.get(i).getQuestionText().equals(questionText)) {
-                    questions.remove(i);
-                    break;
-                }
+            List<Question> questions = new ArrayList<>(loadQuizQuestions(target.quizCode));
+            // The row remembers where its question is; check it is still there
+            if (target.position >= questions.size()
+                    || !questions.get(target.position).getQuestionText().equals(questionText)) {
+                JOptionPane.showMessageDialog(this, "The questions have changed, please try again", "Error", JOptionPane.ERROR_MESSAGE);
+                updateQuestionsTable();
+                return;
             }
+            questions.remove(target.position);
             
             // Save questions back to file
-            saveQuizQuestions(currentQuiz.quizCode, questions);
+            saveQuizQuestions(target.quizCode, questions);
             
             updateQuestionsTable();
             JOptionPane.showMessageDialog(this, "Question removed successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -1212,232 +1781,91 @@ public class QuizSystemGUI extends JFrame {
     }
     
     private void saveQuizQuestion(String quizCode, Question question) {
-        List<Question> questions = loadQuizQuestions(quizCode);
+        List<Question> questions = new ArrayList<>(loadQuizQuestions(quizCode));
         questions.add(question);
         saveQuizQuestions(quizCode, questions);
     }
     
     private void saveQuizQuestions(String quizCode, List<Question> questions) {
+        store.saveQuizQuestions(quizCode, questions);
+    }
+    
+    private List<QuestionIndex.Hit> findDuplicates(String questionText) {
         try {
-            File file = new File(QUIZ_QUESTIONS_DIR + quizCode + ".txt");
-            PrintWriter writer = new PrintWriter(new FileWriter(file));
-            
-            for (Question question : questions) {
-                writer.println(question.toString());
-            }
-            
-            writer.close();
+            return store.findDuplicates(questionText);
         } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error saving questions: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            JOptionPane.showMessageDialog(this, "Error checking for duplicates: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return Collections.emptyList();
         }
     }
     
     private List<Question> loadQuizQuestions(String quizCode) {
-        List<Question> questions = new ArrayList<>();
-        
         try {
-            File file = new File(QUIZ_QUESTIONS_DIR + quizCode + ".txt");
-            if (!file.exists()) return questions;
-            
-            Scanner scanner = new Scanner(file);
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                if (!line.isEmpty()) {
-                    Question question = Question.fromString(line);
-                    if (question != null) {
-                        questions.add(question);
-                    }
-                }
-            }
-            scanner.close();
+            return store.loadQuizQuestions(quizCode);
         } catch (IOException e) {
             JOptionPane.showMessageDialog(this, "Error loading questions: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return Collections.emptyList();
         }
-        
-        return questions;
     }
     
-    private UserData login(String username, String password) {
-        for (UserData user : users) {
-            if (user.username.equals(username) && user.password.equals(password)) {
-                user.lastLogin = new Date();
-                saveUsers();
-                return user;
-            }
+    private List<Question> drawQuestions(QuizData quiz, String username) {
+        try {
+            return store.drawQuestions(quiz, username);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Error loading questions: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return Collections.emptyList();
         }
-        return null;
     }
     
-    private boolean createAccount(String fullName, String username, String password) {
-        // Check if username already exists
-        for (UserData user : users) {
-            if (user.username.equals(username)) {
-                return false;
-            }
-        }
-        
-        UserData newUser = new UserData(username, password, fullName);
-        users.add(newUser);
-        saveUsers();
-        return true;
+    private UserData login(String username, String password) {
+        return store.login(username, password);
     }
     
-    private QuizData findQuizByCode(String code) {
-        for (QuizData quiz : quizzes) {
-            if (quiz.quizCode.equals(code)) {
-                return quiz;
-            }
-        }
-        return null;
-    }
-    
-    public void saveQuizResult(String username, String quizCode, int score, int totalQuestions) {
-        // Create and save result
-        QuizResult result = new QuizResult(username, quizCode, score, totalQuestions);
-        results.add(result);
-        saveResults();
-        
-        // Update user stats
-        for (UserData user : users) {
-            if (user.username.equals(username)) {
-                user.quizzesTaken++;
-                int percent = (int) ((double) score / totalQuestions * 100);
-                if (percent > user.highScore) {
-                    user.highScore = percent;
-                }
-                saveUsers();
-                break;
-            }
-        }
+    private void showTableError(String message) {
+        JOptionPane.showMessageDialog(this, message, "Error", JOptionPane.ERROR_MESSAGE);
     }
     
-    private void loadUsers() {
-        users.clear();
-        try {
-            File file = new File(USERS_FILE);
-            if (!file.exists()) return;
-            
-            Scanner scanner = new Scanner(file);
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                if (!line.isEmpty()) {
-                    String[] parts = line.split(";");
-                    if (parts.length >= 6) {
-                        try {
-                            UserData user = new UserData(parts[0], parts[1], parts[2]);
-                            
-                            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                            user.lastLogin = sdf.parse(parts[3]);
-                            
-                            user.quizzesTaken = Integer.parseInt(parts[4]);
-                            user.highScore = Integer.parseInt(parts[5]);
-                            
-                            users.add(user);
-                        } catch (Exception e) {
-                            // Skip invalid user data
-                        }
-                    }
-                }
-            }
-            scanner.close();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error loading users: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+    private boolean createAccount(String fullName, String username, String password) throws IOException {
+        return store.createAccount(fullName, username, password);
     }
     
-    private void saveUsers() {
-        try {
-            PrintWriter writer = new PrintWriter(new FileWriter(USERS_FILE));
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            
-            for (UserData user : users) {
-                writer.println(user.username + ";" + 
-                               user.password + ";" + 
-                               user.fullName + ";" + 
-                               sdf.format(user.lastLogin) + ";" + 
-                               user.quizzesTaken + ";" + 
-                               user.highScore);
-            }
-            
-            writer.close();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error saving users: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+    private QuizData findQuizByCode(String code) {
+        return store.findQuizByCode(code);
     }
     
-    private void loadQuizData() {
-        quizzes.clear();
-        try {
-            File file = new File(QUIZ_DATA_FILE);
-            if (!file.exists()) return;
-            
-            Scanner scanner = new Scanner(file);
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                if (!line.isEmpty()) {
-                    QuizData quiz = QuizData.fromString(line);
-                    if (quiz != null) {
-                        quizzes.add(quiz);
-                    }
-                }
-            }
-            scanner.close();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error loading quiz data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+    // Returns the share of earlier attempts this score beat, or -1 for the first attempt at the quiz
+    public int saveQuizResult(String username, String quizCode, int score, int totalQuestions) {
+        return store.recordAttempt(username, quizCode, score, totalQuestions);
     }
     
-    private void saveQuizData() {
-        try {
-            PrintWriter writer = new PrintWriter(new FileWriter(QUIZ_DATA_FILE));
-            
-            for (QuizData quiz : quizzes) {
-                writer.println(quiz.toString());
-            }
-            
-            writer.close();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error saving quiz data: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+    private void saveQuiz(QuizData quiz) {
+        store.saveQuiz(quiz);
     }
     
-    private void loadResults() {
-        results.clear();
-        try {
-            File file = new File(RESULTS_FILE);
-            if (!file.exists()) return;
-            
-            Scanner scanner = new Scanner(file);
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                if (!line.isEmpty()) {
-                    QuizResult result = QuizResult.fromString(line);
-                    if (result != null) {
-                        results.add(result);
-                    }
-                }
+    private void loadStore() {
+        // Pending writes are flushed by the store's close on exit
+        Runtime.getRuntime().addShutdownHook(new Thread(store::close));
+        setTitle("Quiz System (loading...)");
+        storeReady = store.loadAllAsync();
+        storeReady.whenComplete((ignored, e) -> SwingUtilities.invokeLater(() -> {
+            setTitle("Quiz System");
+            System.out.println("Data loaded after " + (System.nanoTime() - STARTED_NANOS) / 1_000_000 + " ms");
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                JOptionPane.showMessageDialog(this, cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             }
-            scanner.close();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error loading results: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
+        }));
+        // On the loader thread, as starting JMX takes a while
+        storeReady.whenComplete((ignored, e) -> QuizMetrics.publish());
     }
     
-    private void saveResults() {
-        try {
-            PrintWriter writer = new PrintWriter(new FileWriter(RESULTS_FILE));
-            
-            for (QuizResult result : results) {
-                writer.println(result.toString());
-            }
-            
-            writer.close();
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Error saving results: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+    public static void main(String[] args) throws IOException {
+        // Headless multi-user mode: QuizSystemGUI --server [port]
+        if (args.length > 0 && args[0].equals("--server")) {
+            QuizServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
         }
-    }
-    
-    public static void main(String[] args) {
+        
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
@@ -0,0 +1,261 @@
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+// Shared tokenising and timestamp handling for the separator-delimited record
+// files (users, quizzes, questions, results).
+//
+// Records are read field by field in one pass over the line; numbers and
+// timestamps are parsed in place without substrings. Timestamps are epoch
+// millis in memory and "yyyy-MM-dd HH:mm:ss" local time on disk. The common
+// case is converted arithmetically using the zone offset in force around the
+// last timestamp seen, so neither direction allocates more than the String
+// it returns; anything unusual goes through java.time.
+class RecordFormat {
+    static final String TIMESTAMP_PATTERN = "yyyy-MM-dd HH:mm:ss";
+    static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern(TIMESTAMP_PATTERN);
+    // Also accepts unpadded fields, as the SimpleDateFormat this replaced did
+    private static final DateTimeFormatter LENIENT_TIMESTAMP = DateTimeFormatter.ofPattern("uuuu-M-d H:m:s");
+    private static final int TIMESTAMP_LENGTH = TIMESTAMP_PATTERN.length();
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    // A span of time over which the zone's UTC offset does not change
+    private static class OffsetWindow {
+        final long fromMillis;
+        final long untilMillis;
+        final long offsetMillis;
+
+        OffsetWindow(long fromMillis, long untilMillis, long offsetMillis) {
+            this.fromMillis = fromMillis;
+            this.untilMillis = untilMillis;
+            this.offsetMillis = offsetMillis;
+        }
+
+        boolean contains(long millis) {
+            return millis >= fromMillis && millis < untilMillis;
+        }
+
+        // Local times within a day of a transition may be skipped or repeated
+        boolean containsAwayFromEdges(long millis) {
+            return millis - MILLIS_PER_DAY >= fromMillis && millis + MILLIS_PER_DAY < untilMillis;
+        }
+    }
+
+    private static volatile OffsetWindow window = windowAround(System.currentTimeMillis());
+
+    private static OffsetWindow windowAround(long millis) {
+        Instant instant = Instant.ofEpochMilli(millis);
+        ZoneRules rules = ZONE.getRules();
+        ZoneOffset offset = rules.getOffset(instant);
+        ZoneOffsetTransition previous = rules.previousTransition(instant);
+        ZoneOffsetTransition next = rules.nextTransition(instant);
+        long from = previous == null ? Long.MIN_VALUE
+            : previous.getOffsetAfter().equals(offset) ? previous.toEpochSecond() * 1000 : millis;
+        long until = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000;
+        return new OffsetWindow(from, until, offset.getTotalSeconds() * 1000L);
+    }
+
+    private RecordFormat() {
+    }
+
+    // Epoch millis shifted to the local wall clock, so that dividing by the
+    // length of a day gives the local date as LocalDate.toEpochDay() would
+    static long localMillis(long millis) {
+        OffsetWindow current = window;
+        if (!current.contains(millis)) {
+            current = windowAround(millis);
+            window = current;
+        }
+        return millis + current.offsetMillis;
+    }
+
+    static String formatTimestamp(long millis) {
+        long local = localMillis(millis);
+        long days = Math.floorDiv(local, MILLIS_PER_DAY);
+        int secondOfDay = (int) (Math.floorMod(local, MILLIS_PER_DAY) / 1000);
+
+        // Civil date from days since 1970-01-01 (proleptic Gregorian)
+        long z = days + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return TIMESTAMP.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZONE));
+        }
+
+        char[] out = new char[TIMESTAMP_LENGTH];
+        digits(out, 0, (int) year, 4);
+        out[4] = '-';
+        digits(out, 5, month, 2);
+        out[7] = '-';
+        digits(out, 8, day, 2);
+        out[10] = ' ';
+        digits(out, 11, secondOfDay / 3600, 2);
+        out[13] = ':';
+        digits(out, 14, secondOfDay / 60 % 60, 2);
+        out[16] = ':';
+        digits(out, 17, secondOfDay % 60, 2);
+        return new String(out);
+    }
+
+    private static void digits(char[] out, int at, int value, int width) {
+        for (int i = at + width - 1; i >= at; i--) {
+            out[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    // Throws DateTimeException if the text is not a timestamp
+    static long parseTimestamp(CharSequence text) {
+        return parseTimestamp(text, 0, text.length());
+    }
+
+    static long parseTimestamp(CharSequence text, int from, int to) {
+        if (to - from == TIMESTAMP_LENGTH
+                && text.charAt(from + 4) == '-' && text.charAt(from + 7) == '-' && text.charAt(from + 10) == ' '
+                && text.charAt(from + 13) == ':' && text.charAt(from + 16) == ':') {
+            int year = number(text, from, 4);
+            int month = number(text, from + 5, 2);
+            int day = number(text, from + 8, 2);
+            int hour = number(text, from + 11, 2);
+            int minute = number(text, from + 14, 2);
+            int second = number(text, from + 17, 2);
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= 31
+                    && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60
+                    && day <= daysInMonth(year, month)) {
+                return toEpochMillis(year, month, day, hour, minute, second);
+            }
+        }
+        LocalDateTime local = LocalDateTime.parse(text.subSequence(from, to).toString().trim(), LENIENT_TIMESTAMP);
+        return local.atZone(ZONE).withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2: return Year.isLeap(year) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    // Digits at a position, or -1 if any character is not a digit
+    private static int number(CharSequence text, int at, int width) {
+        int value = 0;
+        for (int i = at; i < at + width; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+        // Days since 1970-01-01 from a civil date (proleptic Gregorian)
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146_097 + dayOfEra - 719_468;
+        long local = days * MILLIS_PER_DAY + (hour * 3600L + minute * 60L + second) * 1000;
+
+        OffsetWindow current = window;
+        long millis = local - current.offsetMillis;
+        if (current.containsAwayFromEdges(millis)) {
+            return millis;
+        }
+        // Repeated local times resolve to the later offset, as SimpleDateFormat did
+        millis = LocalDateTime.of(year, month, day, hour, minute, second)
+            .atZone(ZONE).withLaterOffsetAtOverlap().toInstant().toEpochMilli();
+        window = windowAround(millis);
+        return millis;
+    }
+
+    // Single-pass reader over the fields of one record. Like String.split,
+    // trailing empty fields do not count.
+    static class Fields {
+        private final String line;
+        private final char separator;
+        private int pos = 0;
+
+        Fields(String line, char separator) {
+            this.line = line;
+            this.separator = separator;
+        }
+
+        boolean hasNext() {
+            for (int i = pos; i < line.length(); i++) {
+                if (line.charAt(i) != separator) return true;
+            }
+            return false;
+        }
+
+        private int end() {
+            if (pos > line.length()) {
+                throw new IllegalArgumentException("Missing field in record: " + line);
+            }
+            int end = line.indexOf(separator, pos);
+            return end < 0 ? line.length() : end;
+        }
+
+        String next() {
+            int end = end();
+            String value = line.substring(pos, end);
+            pos = end + 1;
+            return value;
+        }
+
+        // Throws NumberFormatException if the field is not an integer
+        int nextInt() {
+            int end = end();
+            int value = Integer.parseInt(line, pos, end, 10);
+            pos = end + 1;
+            return value;
+        }
+
+        // Throws NumberFormatException if the field is not an integer
+        long nextLong() {
+            int end = end();
+            long value = Long.parseLong(line, pos, end, 10);
+            pos = end + 1;
+            return value;
+        }
+
+        // Throws DateTimeException if the field is not a timestamp
+        long nextTimestamp() {
+            int end = end();
+            long value = parseTimestamp(line, pos, end);
+            pos = end + 1;
+            return value;
+        }
+
+        // Splits the next field on a second separator, dropping trailing empty parts
+        String[] nextList(char itemSeparator) {
+            int end = end();
+            int last = end;
+            while (last > pos && line.charAt(last - 1) == itemSeparator) {
+                last--;
+            }
+            int count = 1;
+            for (int i = pos; i < last; i++) {
+                if (line.charAt(i) == itemSeparator) count++;
+            }
+            String[] items = new String[count];
+            int start = pos;
+            for (int i = 0; i < count; i++) {
+                int itemEnd = i == count - 1 ? last : line.indexOf(itemSeparator, start);
+                items[i] = line.substring(start, itemEnd);
+                start = itemEnd + 1;
+            }
+            pos = end + 1;
+            return items;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Exports results, users or per-quiz statistics to CSV or JSON files.
+//
+// Rows are read from the store a page at a time and written straight through
+// a buffered writer, gzip-compressed if the file name ends in ".gz", so memory
+// use does not grow with the number of rows. The format follows the file name:
+// ".json" (or ".json.gz") gives a JSON array of objects, anything else CSV
+// with a header row. A failed export deletes the partial file.
+class ReportExporter {
+    private static final int PAGE_SIZE = 4_096;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final QuizMetrics.Timer EXPORT = QuizMetrics.timer("export.report");
+    private static final QuizMetrics.Counter ROWS_EXPORTED = QuizMetrics.counter("export.rows");
+
+    enum Report { RESULTS, USERS, QUIZZES }
+
+    enum Format { CSV, JSON }
+
+    // Called after each page, from the exporting thread
+    interface Progress {
+        void update(long rowsDone, long rowsTotal);
+    }
+
+    static Format formatOf(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - 3);
+        }
+        return name.endsWith(".json") ? Format.JSON : Format.CSV;
+    }
+
+    // Writes the report and returns the number of rows. Results can be
+    // limited to one quiz by passing its code; null exports them all.
+    public long export(QuizStore store, Report report, String quizCode, File file, Progress progress)
+            throws IOException {
+        long start = System.nanoTime();
+        OutputStream out = new FileOutputStream(file);
+        boolean finished = false;
+        try {
+            if (file.getName().toLowerCase().endsWith(".gz")) {
+                // About three times as fast as the default level, for files about a third larger
+                out = new GZIPOutputStream(out, BUFFER_SIZE) {
+                    {
+                        def.setLevel(Deflater.BEST_SPEED);
+                    }
+                };
+            }
+            long rows;
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                RowWriter rowWriter = formatOf(file) == Format.JSON ? new JsonRowWriter(writer) : new CsvRowWriter(writer);
+                switch (report) {
+                    case RESULTS:
+                        rows = exportResults(store, quizCode, rowWriter, progress);
+                        break;
+                    case USERS:
+                        rows = exportUsers(store, rowWriter, progress);
+                        break;
+                    default:
+                        rows = exportQuizzes(store, rowWriter, progress);
+                        break;
+                }
+                rowWriter.finish();
+            }
+            finished = true;
+            ROWS_EXPORTED.add(rows);
+            EXPORT.recordSince(start);
+            return rows;
+        } finally {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private static long exportResults(QuizStore store, String quizCode, RowWriter out, Progress progress)
+            throws IOException {
+        out.start("username", "quizCode", "score", "totalQuestions", "percent", "timestamp");
+        // Results recorded during the export are left for the next one
+        int total = store.resultCount();
+        long rows = 0;
+        for (int from = 0; from < total; from += PAGE_SIZE) {
+            for (QuizResult result : store.resultsPage(from, Math.min(total, from + PAGE_SIZE))) {
+                if (quizCode != null && !quizCode.equals(result.quizCode)) continue;
+                out.text(result.username);
+                out.text(result.quizCode);
+                out.number(result.score);
+                out.number(result.totalQuestions);
+                out.number(QuizStats.percentOf(result));
+                out.text(RecordFormat.formatTimestamp(result.timestamp));
+                out.endRow();
+                rows++;
+            }
+            progress.update(Math.min(total, from + PAGE_SIZE), total);
+        }
+        return rows;
+    }
+
+    private static long exportUsers(QuizStore store, RowWriter out, Progress progress) throws IOException {
+        // Passwords are never exported
+        out.start("username", "fullName", "lastLogin", "quizzesTaken", "highScore");
+        int total = store.userCount();
+        long rows = 0;
+        for (int from = 0; from < total; from += PAGE_SIZE) {
+            for (UserData user : store.usersPage(from, Math.min(total, from + PAGE_SIZE))) {
+                out.text(user.username);
+                out.text(user.fullName);
+                out.text(RecordFormat.formatTimestamp(user.lastLogin));
+                out.number(user.quizzesTaken);
+                out.number(user.highScore);
+                out.endRow();
+                rows++;
+            }
+            progress.update(Math.min(total, from + PAGE_SIZE), total);
+        }
+        return rows;
+    }
+
+    private static long exportQuizzes(QuizStore store, RowWriter out, Progress progress) throws IOException {
+        out.start("quizCode", "quizName", "subject", "attempts", "average", "stdDev", "lowest", "median",
+            "percentile90", "highest");
+        List<QuizData> quizzes = store.quizzes();
+        for (QuizData quiz : quizzes) {
+            QuizStats stats = store.statsFor(quiz.quizCode);
+            out.text(quiz.quizCode);
+            out.text(quiz.quizName);
+            out.text(quiz.subject);
+            out.number(stats.count());
+            out.decimal(stats.mean());
+            out.decimal(stats.standardDeviation());
+            out.number(stats.min());
+            out.number(stats.percentile(0.5));
+            out.number(stats.percentile(0.9));
+            out.number(stats.max());
+            out.endRow();
+        }
+        progress.update(quizzes.size(), quizzes.size());
+        return quizzes.size();
+    }
+
+    // Writes rows a field at a time, in the order of the columns given to start()
+    private abstract static class RowWriter {
+        final Writer out;
+        String[] columns;
+        int column = 0;
+        long rows = 0;
+
+        RowWriter(Writer out) {
+            this.out = out;
+        }
+
+        abstract void start(String... columns) throws IOException;
+
+        void text(String value) throws IOException {
+            field(value, true);
+        }
+
+        void number(long value) throws IOException {
+            field(Long.toString(value), false);
+        }
+
+        // One decimal place, as on the statistics tab
+        void decimal(double value) throws IOException {
+            field(String.format(Locale.ROOT, "%.1f", value), false);
+        }
+
+        abstract void field(String value, boolean quoted) throws IOException;
+
+        abstract void endRow() throws IOException;
+
+        abstract void finish() throws IOException;
+    }
+
+    // Fields containing a comma, quote or line break are quoted, with quotes doubled
+    private static class CsvRowWriter extends RowWriter {
+        CsvRowWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void start(String... columns) throws IOException {
+            this.columns = columns;
+            for (String name : columns) {
+                field(name, false);
+            }
+            endRow();
+        }
+
+        @Override
+        void field(String value, boolean quoted) throws IOException {
+            if (column++ > 0) out.write(',');
+            if (!quoted || !needsQuotes(value)) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') out.write('"');
+                out.write(c);
+            }
+            out.write('"');
+        }
+
+        private static boolean needsQuotes(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+            }
+            return false;
+        }
+
+        @Override
+        void endRow() throws IOException {
+            out.write('\n');
+            column = 0;
+            rows++;
+        }
+
+        @Override
+        void finish() {
+        }
+    }
+
+    // An array with one object per row, one row per line
+    private static class JsonRowWriter extends RowWriter {
+        JsonRowWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void start(String... columns) throws IOException {
+            this.columns = columns;
+            out.write('[');
+        }
+
+        @Override
+        void field(String value, boolean quoted) throws IOException {
+            if (column == 0) {
+                out.write(rows == 0 ? "\n{" : ",\n{");
+            } else {
+                out.write(',');
+            }
+            string(columns[column++]);
+            out.write(':');
+            if (quoted) {
+                string(value);
+            } else {
+                out.write(value);
+            }
+        }
+
+        private void string(String value) throws IOException {
+            out.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.write('\\');
+                    out.write(c);
+                } else if (c < 0x20) {
+                    out.write(String.format("\\u%04x", (int) c));
+                } else {
+                    out.write(c);
+                }
+            }
+            out.write('"');
+        }
+
+        @Override
+        void endRow() throws IOException {
+            out.write('}');
+            column = 0;
+            rows++;
+        }
+
+        @Override
+        void finish() throws IOException {
+            out.write(rows == 0 ? "]\n" : "\n]\n");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Report report = null;
+        if (args.length == 2 || args.length == 3) {
+            for (Report candidate : Report.values()) {
+                if (candidate.name().equalsIgnoreCase(args[0])) report = candidate;
+            }
+        }
+        if (report == null || (args.length == 3 && report != Report.RESULTS)) {
+            System.err.println("Usage: java ReportExporter results|users|quizzes <file.csv|file.json>[.gz] [quiz code]");
+            System.exit(1);
+        }
+
+        try (QuizStore store = new QuizStore(new File("."), e -> System.err.println(e.getMessage()))) {
+            store.loadUsers();
+            store.loadQuizData();
+            store.loadResults();
+            long start = System.nanoTime();
+            long rows = new ReportExporter().export(store, report, args.length == 3 ? args[2] : null,
+                new File(args[1]), (done, total) -> { });
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("Exported " + rows + " row(s) to " + args[1] + " in " + millis + " ms");
+        }
+    }
+}
@@ -0,0 +1,163 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Append-only store for quiz results, kept in a StorageEngine.
+//
+// New results are appended to the write-ahead log by a single writer thread,
+// which syncs each batch to disk with one force() call. Every SEGMENT_MAX_RECORDS
+// records the log is sealed and copied onto the end of the snapshot in the
+// background, so each record is copied once no matter how large the history
+// grows. Results from the results.txt and results_journal/ of earlier versions
+// are imported the first time. Results logged by other processes sharing the
+// directory go to the change listener given to start().
+class ResultJournal implements Closeable {
+    private static final int SEGMENT_MAX_RECORDS = 10_000;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTION_MARKER = "compaction";
+
+    static final StorageEngine.Codec<QuizResult> CODEC = new StorageEngine.Codec<QuizResult>() {
+        @Override
+        public void write(QuizResult result, DataOutputStream out) throws IOException {
+            StorageEngine.writeString(out, result.username);
+            StorageEngine.writeString(out, result.quizCode);
+            out.writeInt(result.score);
+            out.writeInt(result.totalQuestions);
+            out.writeLong(result.timestamp);
+        }
+
+        @Override
+        public QuizResult read(ByteBuffer in) {
+            QuizResult result = new QuizResult(StorageEngine.readString(in), StorageEngine.readString(in),
+                in.getInt(), in.getInt());
+            result.timestamp = in.getLong();
+            return result;
+        }
+    };
+
+    private final File legacyBaseFile;
+    private final File legacyJournalDir;
+    private final StorageEngine<QuizResult> engine;
+
+    public ResultJournal(File legacyBaseFile, File legacyJournalDir, File storeDir, Consumer<IOException> errorHandler) {
+        this.legacyBaseFile = legacyBaseFile;
+        this.legacyJournalDir = legacyJournalDir;
+        this.engine = new StorageEngine<>(storeDir, CODEC, SEGMENT_MAX_RECORDS, errorHandler);
+    }
+
+    // Passes every stored result to the consumer, oldest first.
+    public void load(Consumer<QuizResult> into) throws IOException {
+        importLegacy();
+        engine.load(into);
+    }
+
+    // Starts the writer and checkpoint threads.
+    public void start(Consumer<QuizResult> changes) throws IOException {
+        importLegacy();
+        engine.start(changes);
+    }
+
+    // Sets the store up from the legacy files, then sets them aside
+    private void importLegacy() throws IOException {
+        if (engine.exists() || !engine.create(this::readLegacy)) return;
+        if (legacyBaseFile.exists()) {
+            legacyBaseFile.renameTo(new File(legacyBaseFile.getPath() + ".imported"));
+        }
+        if (legacyJournalDir.exists()) {
+            legacyJournalDir.renameTo(new File(legacyJournalDir.getPath() + ".imported"));
+        }
+    }
+
+    // The legacy files are only read: a compaction the old journal left
+    // unfinished is resolved from its marker, by ignoring either the part of
+    // results.txt it appended or the segments it had already copied there.
+    private List<QuizResult> readLegacy() throws IOException {
+        long baseLength = Long.MAX_VALUE;
+        long compacted = 0;
+        File marker = new File(legacyJournalDir, COMPACTION_MARKER);
+        if (marker.exists()) {
+            String[] parts = new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+            if (parts[0].equals("done")) {
+                compacted = Long.parseLong(parts[2]);
+            } else {
+                baseLength = Long.parseLong(parts[1]);
+            }
+        }
+
+        List<QuizResult> imported = new ArrayList<>();
+        readResults(legacyBaseFile, baseLength, imported);
+        for (File segment : legacySegments(compacted)) {
+            readResults(segment, Long.MAX_VALUE, imported);
+        }
+        return imported;
+    }
+
+    public void append(QuizResult result) {
+        engine.append(result);
+    }
+
+    // Blocks until every result appended so far has been synced to disk.
+    public void flush() throws IOException, InterruptedException {
+        engine.flush();
+    }
+
+    @Override
+    public void close() {
+        engine.close();
+    }
+
+    // Segments after the given id, oldest first
+    private List<File> legacySegments(long after) {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        String[] names = legacyJournalDir.list();
+        if (names == null) return new ArrayList<>();
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                    if (id > after) {
+                        segments.put(id, new File(legacyJournalDir, name));
+                    }
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    private static void readResults(File file, long limit, List<QuizResult> into) throws IOException {
+        if (!file.exists()) return;
+        InputStream in = new FileInputStream(file);
+        if (limit < file.length()) {
+            in = new ByteArrayInputStream(readPrefix(in, (int) limit));
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                try {
+                    QuizResult result = QuizResult.fromString(line);
+                    if (result != null) {
+                        into.add(result);
+                    }
+                } catch (RuntimeException e) {
+                    // Skip a line torn by a crash mid-append
+                }
+            }
+        }
+    }
+
+    private static byte[] readPrefix(InputStream in, int length) throws IOException {
+        try (InputStream source = in) {
+            return source.readNBytes(length);
+        }
+    }
+}
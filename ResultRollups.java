@@ -0,0 +1,239 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.List;
+
+// Per-quiz score totals by hour, day and week, kept up to date as results are
+// recorded, for trend reports over a date range.
+//
+// Each quiz has a sorted map per period from bucket number (hours, days or
+// Monday-to-Sunday weeks since 1970-01-01, local time) to the count, sum,
+// lowest and highest of the percentage scores that fell in it. A range query
+// reads one bucket per period in the range, however many attempts there were:
+// a year by day is 365 buckets, by week 53.
+//
+// save() writes the rollups with the number of results they cover and a
+// fingerprint of those results. load() checks the fingerprint against as many
+// of the loaded results and only adds the ones after; if they differ (another
+// process logged results first, or the time zone changed) the rollups are
+// rebuilt from every result.
+class ResultRollups {
+    private static final int MAGIC = 0x51525255; // "QRRU"
+    private static final short VERSION = 1;
+    private static final long MILLIS_PER_HOUR = 3_600_000L;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    enum Period {
+        HOUR, DAY, WEEK;
+
+        // The bucket holding a time given as RecordFormat.localMillis
+        long bucketOf(long localMillis) {
+            switch (this) {
+                case HOUR:
+                    return Math.floorDiv(localMillis, MILLIS_PER_HOUR);
+                case DAY:
+                    return Math.floorDiv(localMillis, MILLIS_PER_DAY);
+                default:
+                    // 1970-01-01 was a Thursday, three days into its week
+                    return Math.floorDiv(Math.floorDiv(localMillis, MILLIS_PER_DAY) + 3, 7);
+            }
+        }
+
+        // Local time at which the bucket starts
+        LocalDateTime start(long bucket) {
+            switch (this) {
+                case HOUR:
+                    return LocalDateTime.ofEpochSecond(bucket * 3600, 0, ZoneOffset.UTC);
+                case DAY:
+                    return LocalDate.ofEpochDay(bucket).atStartOfDay();
+                default:
+                    return LocalDate.ofEpochDay(bucket * 7 - 3).atStartOfDay();
+            }
+        }
+    }
+
+    static class Bucket {
+        final Period period;
+        final long number;
+        int count = 0;
+        long sum = 0;
+        int min = 0;
+        int max = 0;
+
+        Bucket(Period period, long number) {
+            this.period = period;
+            this.number = number;
+        }
+
+        void add(int percent) {
+            if (count == 0 || percent < min) min = percent;
+            if (count == 0 || percent > max) max = percent;
+            count++;
+            sum += percent;
+        }
+
+        LocalDateTime start() {
+            return period.start(number);
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        Bucket copy() {
+            Bucket copy = new Bucket(period, number);
+            copy.count = count;
+            copy.sum = sum;
+            copy.min = min;
+            copy.max = max;
+            return copy;
+        }
+    }
+
+    private final Map<String, EnumMap<Period, TreeMap<Long, Bucket>>> byQuiz = new HashMap<>();
+
+    public synchronized void add(String quizCode, int percent, long timestamp) {
+        EnumMap<Period, TreeMap<Long, Bucket>> periods = byQuiz.get(quizCode);
+        if (periods == null) {
+            periods = new EnumMap<>(Period.class);
+            for (Period period : Period.values()) {
+                periods.put(period, new TreeMap<>());
+            }
+            byQuiz.put(quizCode, periods);
+        }
+        long local = RecordFormat.localMillis(timestamp);
+        for (Period period : Period.values()) {
+            long number = period.bucketOf(local);
+            periods.get(period).computeIfAbsent(number, n -> new Bucket(period, n)).add(percent);
+        }
+    }
+
+    public void add(QuizResult result) {
+        add(result.quizCode, QuizStats.percentOf(result), result.timestamp);
+    }
+
+    // Copies of the quiz's buckets that overlap the local dates from..to
+    // (inclusive), oldest first; periods without attempts are left out
+    public synchronized List<Bucket> range(String quizCode, Period period, LocalDate from, LocalDate to) {
+        List<Bucket> buckets = new ArrayList<>();
+        EnumMap<Period, TreeMap<Long, Bucket>> periods = byQuiz.get(quizCode);
+        if (periods == null || to.isBefore(from)) return buckets;
+        long first = period.bucketOf(from.toEpochDay() * MILLIS_PER_DAY);
+        long last = period.bucketOf(to.plusDays(1).toEpochDay() * MILLIS_PER_DAY - 1);
+        for (Bucket bucket : periods.get(period).subMap(first, true, last, true).values()) {
+            buckets.add(bucket.copy());
+        }
+        return buckets;
+    }
+
+    // Reads the rollups saved for these results, adding the results saved
+    // since; rebuilds them from the results if the file is missing or stale
+    static ResultRollups load(File file, ResultTable results) {
+        ResultRollups rollups = new ResultRollups();
+        int covered = 0;
+        try {
+            covered = rollups.read(file, results);
+        } catch (IOException e) {
+            // Missing or unreadable: start over
+            rollups = new ResultRollups();
+        }
+        if (covered < 0) {
+            rollups = new ResultRollups();
+            covered = 0;
+        }
+        ResultRollups into = rollups;
+        results.scan(covered, results.size(), (row, username, quizCode, score, totalQuestions, timestamp) ->
+            into.add(quizCode, QuizStats.percentOf(score, totalQuestions), timestamp));
+        return rollups;
+    }
+
+    // Returns how many results the file covers, or -1 if they are not the
+    // first results in the table
+    private int read(File file, ResultTable results) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) return -1;
+            if (!in.readUTF().equals(ZoneId.systemDefault().getId())) return -1;
+            int covered = in.readInt();
+            long fingerprint = in.readLong();
+            if (covered > results.size() || fingerprint(results, covered) != fingerprint) return -1;
+
+            int quizzes = in.readInt();
+            for (int i = 0; i < quizzes; i++) {
+                EnumMap<Period, TreeMap<Long, Bucket>> periods = new EnumMap<>(Period.class);
+                byQuiz.put(in.readUTF(), periods);
+                for (Period period : Period.values()) {
+                    TreeMap<Long, Bucket> buckets = new TreeMap<>();
+                    periods.put(period, buckets);
+                    int count = in.readInt();
+                    for (int j = 0; j < count; j++) {
+                        Bucket bucket = new Bucket(period, in.readLong());
+                        bucket.count = in.readInt();
+                        bucket.sum = in.readLong();
+                        bucket.min = in.readByte();
+                        bucket.max = in.readByte();
+                        buckets.put(bucket.number, bucket);
+                    }
+                }
+            }
+            return covered;
+        }
+    }
+
+    // Writes the rollups, which must cover exactly these results, next to the
+    // file and moves them into place atomically
+    public synchronized void save(File file, ResultTable results) throws IOException {
+        Path target = file.toPath();
+        // Named per process, as other processes sharing the directory save too
+        Path temp = target.resolveSibling(file.getName() + "." + ProcessHandle.current().pid() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeUTF(ZoneId.systemDefault().getId());
+                out.writeInt(results.size());
+                out.writeLong(fingerprint(results, results.size()));
+                out.writeInt(byQuiz.size());
+                for (Map.Entry<String, EnumMap<Period, TreeMap<Long, Bucket>>> quiz : byQuiz.entrySet()) {
+                    out.writeUTF(quiz.getKey());
+                    for (Period period : Period.values()) {
+                        TreeMap<Long, Bucket> buckets = quiz.getValue().get(period);
+                        out.writeInt(buckets.size());
+                        for (Bucket bucket : buckets.values()) {
+                            out.writeLong(bucket.number);
+                            out.writeInt(bucket.count);
+                            out.writeLong(bucket.sum);
+                            out.writeByte(bucket.min);
+                            out.writeByte(bucket.max);
+                        }
+                    }
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // Order-independent hash of the first rows of the table
+    private static long fingerprint(ResultTable results, int rows) {
+        long[] sum = {0};
+        results.scan(0, rows, (row, username, quizCode, score, totalQuestions, timestamp) -> {
+            long h = username.hashCode() * 0x9E3779B97F4A7C15L + quizCode.hashCode();
+            h = (h * 31 + score) * 31 + totalQuestions;
+            h ^= timestamp;
+            // MurmurHash3 finalizer, so that nearby rows do not cancel out
+            h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+            h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            sum[0] += h ^ (h >>> 33);
+        });
+        return sum[0];
+    }
+}
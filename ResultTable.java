@@ -0,0 +1,223 @@
+import java.util.*;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+
+// Every recorded result, held column by column rather than as QuizResult objects.
+//
+// Usernames and quiz codes are each replaced by an int id from a dictionary
+// holding one copy of every distinct string. The ids, scores, totals and
+// timestamps (in epoch seconds) go in primitive arrays that grow a CHUNK_SIZE
+// chunk at a time, so adding a row never copies the rows before it and a scan
+// reads a few arrays front to back. A row costs 20 bytes plus 4 in its user's
+// row list, where a QuizResult with its own strings costs well over 100.
+//
+// QuizResults are only made when rows are read. Not thread-safe; QuizStore
+// guards it with its own lock.
+class ResultTable {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    enum Order { USERNAME, QUIZ_CODE, PERCENT, TIME }
+
+    interface RowVisitor {
+        // The timestamp is in epoch millis, whole seconds only
+        void visit(int row, String username, String quizCode, int score, int totalQuestions, long timestamp);
+    }
+
+    // Assigns each distinct string an id, counting up from 0
+    private static class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int idOf(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        // -1 if the value has never been added
+        int find(String value) {
+            Integer id = ids.get(value);
+            return id == null ? -1 : id;
+        }
+
+        String valueOf(int id) {
+            return values.get(id);
+        }
+
+        // Per id, whether the lower-cased value contains the text
+        boolean[] containing(String text) {
+            boolean[] matches = new boolean[values.size()];
+            for (int id = 0; id < matches.length; id++) {
+                matches[id] = values.get(id).toLowerCase().contains(text);
+            }
+            return matches;
+        }
+
+        // Per id, the value's rank in sorted order
+        int[] ranks() {
+            return RowOrder.ranks(values.toArray(new String[0]));
+        }
+    }
+
+    private final Dictionary usernames = new Dictionary();
+    private final Dictionary quizCodes = new Dictionary();
+    private int[][] userIds = new int[0][];
+    private int[][] quizIds = new int[0][];
+    private int[][] scores = new int[0][];
+    private int[][] totals = new int[0][];
+    // Unsigned epoch seconds, good until 2106
+    private int[][] seconds = new int[0][];
+    private int size = 0;
+    // Row numbers of each user's results, oldest first, indexed by user id
+    private int[][] rowsByUser = new int[0][];
+    private int[] rowCountByUser = new int[0];
+
+    public int size() {
+        return size;
+    }
+
+    // Appends a result and returns its row number
+    public int add(QuizResult result) {
+        int row = size;
+        int chunk = row >>> CHUNK_BITS;
+        if (chunk == userIds.length) {
+            userIds = addChunk(userIds);
+            quizIds = addChunk(quizIds);
+            scores = addChunk(scores);
+            totals = addChunk(totals);
+            seconds = addChunk(seconds);
+        }
+        int offset = row & CHUNK_MASK;
+        int user = usernames.idOf(result.username);
+        userIds[chunk][offset] = user;
+        quizIds[chunk][offset] = quizCodes.idOf(result.quizCode);
+        scores[chunk][offset] = result.score;
+        totals[chunk][offset] = result.totalQuestions;
+        seconds[chunk][offset] = (int) Math.floorDiv(result.timestamp, 1000);
+        size++;
+        addRowForUser(user, row);
+        return row;
+    }
+
+    private static int[][] addChunk(int[][] chunks) {
+        int[][] grown = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = new int[CHUNK_SIZE];
+        return grown;
+    }
+
+    private void addRowForUser(int user, int row) {
+        if (user == rowsByUser.length) {
+            int capacity = Math.max(16, user * 2);
+            rowsByUser = Arrays.copyOf(rowsByUser, capacity);
+            rowCountByUser = Arrays.copyOf(rowCountByUser, capacity);
+        }
+        int[] rows = rowsByUser[user];
+        int count = rowCountByUser[user];
+        if (rows == null) {
+            rows = rowsByUser[user] = new int[4];
+        } else if (count == rows.length) {
+            rows = rowsByUser[user] = Arrays.copyOf(rows, count * 2);
+        }
+        rows[count] = row;
+        rowCountByUser[user] = count + 1;
+    }
+
+    public QuizResult get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        int chunk = row >>> CHUNK_BITS;
+        int offset = row & CHUNK_MASK;
+        QuizResult result = new QuizResult(usernames.valueOf(userIds[chunk][offset]),
+            quizCodes.valueOf(quizIds[chunk][offset]), scores[chunk][offset], totals[chunk][offset]);
+        result.timestamp = Integer.toUnsignedLong(seconds[chunk][offset]) * 1000;
+        return result;
+    }
+
+    // The results at rows [from, to), clamped to the table
+    public List<QuizResult> rows(int from, int to) {
+        to = Math.min(to, size);
+        List<QuizResult> rows = new ArrayList<>(Math.max(0, to - from));
+        for (int row = Math.max(0, from); row < to; row++) {
+            rows.add(get(row));
+        }
+        return rows;
+    }
+
+    // One user's results, oldest first
+    public List<QuizResult> rowsFor(String username) {
+        int user = usernames.find(username);
+        if (user < 0) return new ArrayList<>();
+        int count = rowCountByUser[user];
+        List<QuizResult> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(get(rowsByUser[user][i]));
+        }
+        return rows;
+    }
+
+    // Rows whose username or quiz code contains the lower-cased text (null
+    // for every row), sorted in the order given (null keeps row order).
+    // Works on the columns alone, so costs no QuizResults.
+    public int[] select(String text, Order order, boolean descending) {
+        int[] rows = new int[size];
+        int count = 0;
+        if (text == null) {
+            for (int row = 0; row < size; row++) {
+                rows[count++] = row;
+            }
+        } else {
+            boolean[] userMatches = usernames.containing(text);
+            boolean[] quizMatches = quizCodes.containing(text);
+            for (int row = 0; row < size; row++) {
+                int chunk = row >>> CHUNK_BITS;
+                int offset = row & CHUNK_MASK;
+                if (userMatches[userIds[chunk][offset]] || quizMatches[quizIds[chunk][offset]]) {
+                    rows[count++] = row;
+                }
+            }
+        }
+
+        if (order != null && count > 1) {
+            IntToLongFunction key;
+            switch (order) {
+                case USERNAME: {
+                    int[] ranks = usernames.ranks();
+                    key = row -> ranks[userIds[row >>> CHUNK_BITS][row & CHUNK_MASK]];
+                    break;
+                }
+                case QUIZ_CODE: {
+                    int[] ranks = quizCodes.ranks();
+                    key = row -> ranks[quizIds[row >>> CHUNK_BITS][row & CHUNK_MASK]];
+                    break;
+                }
+                case PERCENT:
+                    key = row -> QuizStats.percentOf(scores[row >>> CHUNK_BITS][row & CHUNK_MASK],
+                        totals[row >>> CHUNK_BITS][row & CHUNK_MASK]);
+                    break;
+                default:
+                    key = row -> Integer.toUnsignedLong(seconds[row >>> CHUNK_BITS][row & CHUNK_MASK]);
+                    break;
+            }
+            RowOrder.sort(rows, count, key, descending);
+        }
+        return count == rows.length ? rows : Arrays.copyOf(rows, count);
+    }
+
+    // Calls the visitor for rows [from, to) in order without making QuizResults
+    public void scan(int from, int to, RowVisitor visitor) {
+        to = Math.min(to, size);
+        for (int row = Math.max(0, from); row < to; row++) {
+            int chunk = row >>> CHUNK_BITS;
+            int offset = row & CHUNK_MASK;
+            visitor.visit(row, usernames.valueOf(userIds[chunk][offset]), quizCodes.valueOf(quizIds[chunk][offset]),
+                scores[chunk][offset], totals[chunk][offset], Integer.toUnsignedLong(seconds[chunk][offset]) * 1000);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.*;
+import java.util.function.IntToLongFunction;
+
+// Sorts row positions by a key per row without boxing them.
+//
+// Each position is packed into one long below its key, and the longs are
+// sorted as primitives, so rows with equal keys stay in position order. Keys
+// are unsigned 32-bit values; strings and longs are first replaced by their
+// rank among the distinct values.
+class RowOrder {
+    private static final long MAX_KEY = 0xFFFFFFFFL;
+
+    // Sorts the first count positions in place by their keys
+    static void sort(int[] positions, int count, IntToLongFunction key, boolean descending) {
+        long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            long k = key.applyAsLong(positions[i]);
+            packed[i] = (descending ? MAX_KEY - k : k) << 31 | positions[i];
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < count; i++) {
+            positions[i] = (int) (packed[i] & Integer.MAX_VALUE);
+        }
+    }
+
+    // Maps an int onto an unsigned key in the same order
+    static long key(int value) {
+        return (long) value - Integer.MIN_VALUE;
+    }
+
+    // Each value's rank among the distinct values, equal values sharing one
+    static int[] ranks(String[] values) {
+        String[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (String value : sorted) {
+            if (distinct == 0 || !sorted[distinct - 1].equals(value)) sorted[distinct++] = value;
+        }
+        int[] ranks = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ranks[i] = Arrays.binarySearch(sorted, 0, distinct, values[i]);
+        }
+        return ranks;
+    }
+
+    static int[] ranks(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (long value : sorted) {
+            if (distinct == 0 || sorted[distinct - 1] != value) sorted[distinct++] = value;
+        }
+        int[] ranks = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ranks[i] = Arrays.binarySearch(sorted, 0, distinct, values[i]);
+        }
+        return ranks;
+    }
+}
@@ -0,0 +1,838 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Durable storage for one kind of record: a snapshot plus a write-ahead log,
+// safe to share between processes.
+//
+// Each change is appended to the newest log file (wal-<n>.log) as a framed
+// binary record: int length, int CRC32 of the payload, payload. A writer thread
+// batches appends and syncs each batch with one force(), so a write is a small
+// append. From time to time the log is rolled over to a new file and the
+// sealed logs are folded into the snapshot (snapshot-<n>.dat): keyed records
+// are merged so only the latest per key remains, while other records are
+// copied onto the end of the snapshot. The "checkpoint" file names the
+// snapshot, its valid length and the first log not yet folded in. It is
+// replaced atomically, so after a crash either the old or the new checkpoint
+// holds, and everything past it is replayed from the logs.
+//
+// Several processes (or stores in one process) may open the same directory.
+// Appends, rollovers and checkpoints happen under an exclusive FileChannel
+// lock on the "lock" file, and each engine first reads whatever the others
+// appended since it last looked, handing those records to its change listener.
+// A poller notices other writers by file size alone and only then takes a
+// shared lock to read their records, so an idle instance costs a stat a poll.
+//
+// Recovery reads the snapshot up to its checkpointed length, then replays the
+// remaining logs, stopping in each at the first torn or corrupt record, so its
+// cost is bounded by how much log builds up between checkpoints.
+class StorageEngine<R> implements Closeable {
+    interface Codec<R> {
+        void write(R record, DataOutputStream out) throws IOException;
+
+        // Reads one record from a heap buffer positioned at its payload
+        R read(ByteBuffer in);
+    }
+
+    // For records that supersede earlier ones with the same key
+    interface KeyedCodec<R> extends Codec<R> {
+        String key(R record);
+
+        // Whether the record deletes its key
+        boolean isRemoval(R record);
+
+        // Combines a key's stored record with a later one. Given the
+        // same records, every process must come to the same result.
+        R merge(R previous, R next);
+    }
+
+    interface Importer<R> {
+        Collection<R> read() throws IOException;
+    }
+
+    // Override with -Dquiz.store.pollMillis
+    private static final long POLL_MILLIS = Long.getLong("quiz.store.pollMillis", 500);
+    private static final int MAX_BATCH = 512;
+    private static final long MAX_LOCK_BACKOFF_MILLIS = 16;
+    private static final long MAX_RETRY_MILLIS = 2_000;
+    // Folded logs are kept this long for processes that have not read them yet
+    private static final long LOG_RETENTION_MILLIS = 60_000;
+    private static final int MAX_RECORD_SIZE = 16 << 20;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int FRAME_HEADER = 8;
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOCK = "lock";
+    private static final String FOLD_LOCK = "fold.lock";
+    private static final Object CHECKPOINT_REQUEST = new Object();
+    // Queued by close() so the writer does not wait out its poll timeout
+    private static final Object WAKE_UP = new Object();
+
+    // A FileLock belongs to the whole JVM, so engines on the same directory in
+    // one process take turns on one of these as well
+    private static final Map<String, Object> MONITORS = new ConcurrentHashMap<>();
+
+    // Where the snapshot ends and the logs begin
+    private static class Checkpoint {
+        final long snapshotId;
+        final long snapshotLength;
+        final long firstLog;
+
+        Checkpoint(long snapshotId, long snapshotLength, long firstLog) {
+            this.snapshotId = snapshotId;
+            this.snapshotLength = snapshotLength;
+            this.firstLog = firstLog;
+        }
+    }
+
+    // The valid prefix of a file and the records in it
+    private static class Scan {
+        long end;
+        long records;
+    }
+
+    private interface Locked<T> {
+        T run() throws IOException;
+    }
+
+    // A lock file shared with other processes
+    private static class LockFile {
+        final File file;
+        final Object monitor;
+        private FileChannel channel;
+
+        LockFile(File file) {
+            this.file = file;
+            this.monitor = MONITORS.computeIfAbsent(file.getAbsolutePath(), k -> new Object());
+        }
+
+        // Runs an action holding the lock, shared or exclusive, against other
+        // processes and other engines in this one
+        <T> T hold(boolean shared, Locked<T> action) throws IOException {
+            synchronized (monitor) {
+                if (channel == null) {
+                    file.getParentFile().mkdirs();
+                    channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                // POSIX locks belong to the process, so blocking for one while
+                // this process holds another can be refused as a deadlock;
+                // polling never is
+                FileLock lock;
+                long backoffMillis = 1;
+                while ((lock = channel.tryLock(0, Long.MAX_VALUE, shared)) == null) {
+                    try {
+                        Thread.sleep(backoffMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for " + file);
+                    }
+                    backoffMillis = Math.min(backoffMillis * 2, MAX_LOCK_BACKOFF_MILLIS);
+                }
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        void close() throws IOException {
+            synchronized (monitor) {
+                if (channel != null) channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private final File dir;
+    private final Codec<R> codec;
+    private final long rollRecords;
+    private final Consumer<IOException> errorHandler;
+    // Held to append, roll over, commit a checkpoint or read
+    private final LockFile lock;
+    // Held while folding logs into the snapshot, so appends carry on meanwhile
+    private final LockFile foldLock;
+
+    private final BlockingQueue<Object> pending = new LinkedBlockingQueue<>();
+    private final Object syncLock = new Object();
+    private long appendedCount = 0;
+    private long durableCount = 0;
+    // Why the batch being retried failed, until a write succeeds
+    private IOException writeFailure = null;
+
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream(256);
+    private final DataOutputStream encoder = new DataOutputStream(encoded);
+    private final CRC32 encoderCrc = new CRC32();
+
+    private volatile boolean started = false;
+    private volatile boolean closed = false;
+    private Thread writerThread;
+    private ScheduledExecutorService background;
+    private Consumer<R> changes;
+
+    // How far this engine has read the logs, guarded by lock.monitor. Records
+    // before this point are in memory, whoever wrote them.
+    private boolean positioned = false;
+    private long readLog = 1;
+    private long readOffset = 0;
+    private final TreeMap<Long, Long> recordsPerLog = new TreeMap<>();
+    private volatile long recordsSinceCheckpoint = 0;
+    private boolean reportedGap = false;
+
+    private final QuizMetrics.Counter bytesWritten;
+    private final QuizMetrics.Counter recordsLoaded;
+    private final QuizMetrics.Timer batchWrites;
+    private final QuizMetrics.Timer folds;
+
+    // rollRecords > 0 starts a new log, and folds the sealed ones into the
+    // snapshot, every that many records; otherwise only checkpoint() does.
+    public StorageEngine(File dir, Codec<R> codec, long rollRecords, Consumer<IOException> errorHandler) {
+        this.dir = dir;
+        this.codec = codec;
+        this.rollRecords = rollRecords;
+        this.errorHandler = errorHandler;
+        this.lock = new LockFile(new File(dir, LOCK));
+        this.foldLock = new LockFile(new File(dir, FOLD_LOCK));
+        String metrics = "store." + dir.getName();
+        this.bytesWritten = QuizMetrics.counter(metrics + ".bytesWritten");
+        this.recordsLoaded = QuizMetrics.counter(metrics + ".recordsLoaded");
+        this.batchWrites = QuizMetrics.timer(metrics + ".batchWrite");
+        this.folds = QuizMetrics.timer(metrics + ".fold");
+    }
+
+    // Whether this store has been set up, by create() or start(). Logs are
+    // only ever written after that.
+    public boolean exists() {
+        return new File(dir, CHECKPOINT).exists();
+    }
+
+    // Sets the store up with an initial snapshot of the importer's records,
+    // unless some process already has; returns whether it did.
+    public boolean create(Importer<R> importer) throws IOException {
+        return lock.hold(false, () -> {
+            if (exists()) return false;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (R record : importer.read()) {
+                out.write(encode(record));
+            }
+            try (FileOutputStream stream = new FileOutputStream(file(SNAPSHOT_PREFIX, 1, SNAPSHOT_SUFFIX))) {
+                out.writeTo(stream);
+                stream.getFD().sync();
+            }
+            commit(new Checkpoint(1, out.size(), 1));
+            bytesWritten.add(out.size());
+            return true;
+        });
+    }
+
+    // Replays the snapshot and then every log after it, oldest first. Later
+    // changes by other processes go to the listener given to start().
+    public void load(Consumer<R> replay) throws IOException {
+        lock.hold(true, () -> {
+            Checkpoint current = readCheckpoint();
+            if (current.snapshotId > 0) {
+                File snapshot = file(SNAPSHOT_PREFIX, current.snapshotId, SNAPSHOT_SUFFIX);
+                Scan scan = readRecords(snapshot, 0, current.snapshotLength, replay);
+                if (scan.end < current.snapshotLength) {
+                    throw new IOException("Snapshot " + snapshot + " is corrupt at byte " + scan.end);
+                }
+                recordsLoaded.add(scan.records);
+            }
+            readLog = current.firstLog;
+            readOffset = 0;
+            recordsPerLog.clear();
+            catchUp(current, replay);
+            positioned = true;
+            return null;
+        });
+    }
+
+    // Starts the writer thread and the poller, which passes records appended by
+    // other processes to the listener. Without a load() first, records already
+    // stored are skipped.
+    public void start(Consumer<R> changes) throws IOException {
+        if (started) return;
+        synchronized (lock.monitor) {
+            if (started) return;
+            lock.hold(false, () -> {
+                if (!exists()) {
+                    commit(new Checkpoint(0, 0, 1));
+                }
+                if (!positioned) {
+                    Checkpoint current = readCheckpoint();
+                    readLog = current.firstLog;
+                    readOffset = 0;
+                    catchUp(current, null);
+                    positioned = true;
+                }
+                return null;
+            });
+            this.changes = changes;
+
+            background = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, dir.getName() + "-store-background");
+                t.setDaemon(true);
+                return t;
+            });
+            background.scheduleWithFixedDelay(this::poll, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+            writerThread = new Thread(this::writeLoop, dir.getName() + "-log-writer");
+            writerThread.setDaemon(true);
+            writerThread.start();
+            started = true;
+        }
+    }
+
+    public void append(R record) {
+        if (closed) {
+            throw new IllegalStateException("Storage for " + dir.getName() + " is closed");
+        }
+        byte[] frame = encode(record);
+        synchronized (syncLock) {
+            appendedCount++;
+        }
+        pending.add(frame);
+    }
+
+    // Records in the logs since the last checkpoint, whoever wrote them
+    public long recordsSinceCheckpoint() {
+        return recordsSinceCheckpoint;
+    }
+
+    // Asks for the log to be rolled over after the records appended so far,
+    // and folded into the snapshot in the background.
+    public void checkpoint() {
+        pending.add(CHECKPOINT_REQUEST);
+    }
+
+    private byte[] encode(R record) {
+        synchronized (encoder) {
+            try {
+                encoded.reset();
+                encoder.writeInt(0);
+                encoder.writeInt(0);
+                codec.write(record, encoder);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            byte[] frame = encoded.toByteArray();
+            int length = frame.length - FRAME_HEADER;
+            encoderCrc.reset();
+            encoderCrc.update(frame, FRAME_HEADER, length);
+            ByteBuffer.wrap(frame).putInt(length).putInt((int) encoderCrc.getValue());
+            return frame;
+        }
+    }
+
+    // Blocks until every record appended so far has been synced to disk.
+    // Throws if writing them is failing; the writer keeps retrying.
+    public void flush() throws IOException, InterruptedException {
+        synchronized (syncLock) {
+            long target = appendedCount;
+            while (durableCount < target) {
+                if (writeFailure != null) {
+                    throw new IOException("Changes to " + dir.getName() + " are not saved yet", writeFailure);
+                }
+                if (writerThread == null || !writerThread.isAlive()) return;
+                syncLock.wait(100);
+            }
+        }
+    }
+
+    // A batch that fails to write is kept and retried, backing off, so later
+    // records never overtake it. After close() it is given up on.
+    private void writeLoop() {
+        List<Object> batch = new ArrayList<>(MAX_BATCH);
+        long retryMillis = 0;
+        while (!closed || !pending.isEmpty() || !batch.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    Object first = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                    pending.drainTo(batch, MAX_BATCH - 1);
+                } else {
+                    Thread.sleep(retryMillis);
+                }
+                boolean rolled = writeBatch(batch);
+                int records = 0;
+                for (Object item : batch) {
+                    if (item instanceof byte[]) records++;
+                }
+                synchronized (syncLock) {
+                    durableCount += records;
+                    writeFailure = null;
+                    syncLock.notifyAll();
+                }
+                batch.clear();
+                retryMillis = 0;
+                if (rolled) {
+                    background.execute(this::checkpointQuietly);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                // Reported once per run of failures rather than per retry
+                if (retryMillis == 0) {
+                    errorHandler.accept(e);
+                }
+                synchronized (syncLock) {
+                    writeFailure = e;
+                    syncLock.notifyAll();
+                }
+                if (closed) {
+                    errorHandler.accept(new IOException("Gave up saving changes to " + dir.getName(), e));
+                    batch.clear();
+                }
+                retryMillis = Math.min(Math.max(retryMillis * 2, 50), MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
+    // Appends a batch to the newest log, after taking in what other processes
+    // appended before it. Returns whether the log was rolled over.
+    private boolean writeBatch(List<Object> batch) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long count = 0;
+        boolean requested = false;
+        for (Object item : batch) {
+            if (item == CHECKPOINT_REQUEST) {
+                requested = true;
+            } else if (item instanceof byte[]) {
+                out.write((byte[]) item);
+                count++;
+            }
+        }
+        if (count == 0 && !requested) return false;
+        long records = count;
+        boolean roll = requested;
+
+        long start = System.nanoTime();
+        boolean rolled = lock.hold(false, () -> {
+            Checkpoint current = readCheckpoint();
+            catchUp(current, changes);
+            startNextLogIfTorn();
+            if (records > 0) {
+                writeRecords(current, out.toByteArray(), records);
+            }
+            if (roll || (rollRecords > 0 && recordsPerLog.getOrDefault(readLog, 0L) >= rollRecords)) {
+                startNextLog();
+                return true;
+            }
+            return false;
+        });
+        batchWrites.recordSince(start);
+        return rolled;
+    }
+
+    // Appends a record at once, bypassing the writer thread, if the condition
+    // holds once the records other processes appended have been taken in.
+    // The check, the append and then applied run under the exclusive lock, so
+    // no other process or engine can pass the same check in between. Returns
+    // whether the record was appended.
+    public boolean appendIf(R record, BooleanSupplier condition, Runnable applied) throws IOException {
+        if (!started || closed) {
+            throw new IllegalStateException("Storage for " + dir.getName() + " is not open");
+        }
+        byte[] frame = encode(record);
+        long start = System.nanoTime();
+        boolean appended = lock.hold(false, () -> {
+            Checkpoint current = readCheckpoint();
+            catchUp(current, changes);
+            if (!condition.getAsBoolean()) return false;
+            startNextLogIfTorn();
+            writeRecords(current, frame, 1);
+            applied.run();
+            return true;
+        });
+        batchWrites.recordSince(start);
+        return appended;
+    }
+
+    // Writes and syncs framed records at the end of the newest log; called
+    // with the lock held
+    private void writeRecords(Checkpoint current, byte[] frames, long records) throws IOException {
+        // Opened per batch so no process keeps a sealed log open, which
+        // would stop it being deleted on some platforms
+        long position = readOffset;
+        try (FileChannel channel = FileChannel.open(file(LOG_PREFIX, readLog, LOG_SUFFIX).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(frames);
+            try {
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // Records left behind would be read back as another
+                // process's, and then written again by the retry
+                try {
+                    channel.truncate(readOffset);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+        bytesWritten.add(position - readOffset);
+        readOffset = position;
+        recordsPerLog.merge(readLog, records, Long::sum);
+        countSinceCheckpoint(current);
+    }
+
+    // Bytes past the last valid record were torn by a crash and would hide
+    // anything written after them, so the next records go in a new log
+    private void startNextLogIfTorn() throws IOException {
+        if (file(LOG_PREFIX, readLog, LOG_SUFFIX).length() > readOffset) {
+            startNextLog();
+        }
+    }
+
+    // Seals the newest log by creating the next one; called with the lock held
+    private void startNextLog() throws IOException {
+        readLog++;
+        readOffset = 0;
+        Files.newOutputStream(file(LOG_PREFIX, readLog, LOG_SUFFIX).toPath(), StandardOpenOption.CREATE).close();
+    }
+
+    // Reads records appended since this engine last looked, following any
+    // rollovers, and passes them to the listener; called with the lock held.
+    private void catchUp(Checkpoint current, Consumer<R> listener) throws IOException {
+        while (true) {
+            File log = file(LOG_PREFIX, readLog, LOG_SUFFIX);
+            if (readLog < current.firstLog && !log.exists()) {
+                // Folded into the snapshot and deleted before this process read it
+                if (!reportedGap) {
+                    reportedGap = true;
+                    errorHandler.accept(new IOException("Changes by another instance in " + dir
+                        + " were missed; restart to reload them"));
+                }
+                readLog = current.firstLog;
+                readOffset = 0;
+                continue;
+            }
+            if (log.length() > readOffset) {
+                Scan scan = readRecords(log, readOffset, Long.MAX_VALUE, listener);
+                readOffset += scan.end;
+                recordsPerLog.merge(readLog, scan.records, Long::sum);
+                if (listener != null) {
+                    recordsLoaded.add(scan.records);
+                }
+            }
+            if (!file(LOG_PREFIX, readLog + 1, LOG_SUFFIX).exists()) break;
+            readLog++;
+            readOffset = 0;
+        }
+        countSinceCheckpoint(current);
+    }
+
+    private void countSinceCheckpoint(Checkpoint current) {
+        recordsPerLog.headMap(current.firstLog).clear();
+        long count = 0;
+        for (long records : recordsPerLog.values()) {
+            count += records;
+        }
+        recordsSinceCheckpoint = count;
+    }
+
+    // Takes in other processes' appends, if the logs have grown since this
+    // engine last looked
+    private void poll() {
+        try {
+            synchronized (lock.monitor) {
+                if (file(LOG_PREFIX, readLog, LOG_SUFFIX).length() <= readOffset
+                        && !file(LOG_PREFIX, readLog + 1, LOG_SUFFIX).exists()) {
+                    return;
+                }
+                lock.hold(true, () -> {
+                    catchUp(readCheckpoint(), changes);
+                    return null;
+                });
+            }
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    private void checkpointQuietly() {
+        // Left for the next rollover rather than holding up close()
+        if (closed) return;
+        try {
+            foldLock.hold(false, () -> {
+                foldSealedLogs();
+                return null;
+            });
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    // Folds every sealed log into the snapshot. Keyed records are merged into
+    // a new snapshot; others are copied onto the end of the current one,
+    // overwriting anything past its checkpointed length that an interrupted
+    // attempt left behind. Sealed logs no longer change, so only the commit
+    // needs the main lock. Called with the fold lock held.
+    private void foldSealedLogs() throws IOException {
+        Checkpoint current = readCheckpoint();
+        List<Long> logs = ids(LOG_PREFIX, LOG_SUFFIX);
+        long newest = logs.isEmpty() ? current.firstLog : logs.get(logs.size() - 1);
+        List<File> sealed = new ArrayList<>();
+        for (long id : logs) {
+            if (id >= current.firstLog && id < newest) sealed.add(file(LOG_PREFIX, id, LOG_SUFFIX));
+        }
+        if (sealed.isEmpty()) return;
+
+        long start = System.nanoTime();
+        File snapshot = current.snapshotId > 0 ? file(SNAPSHOT_PREFIX, current.snapshotId, SNAPSHOT_SUFFIX) : null;
+        Checkpoint next;
+        if (codec instanceof KeyedCodec) {
+            KeyedCodec<R> keyed = (KeyedCodec<R>) codec;
+            Map<String, R> latest = new LinkedHashMap<>();
+            Consumer<R> merge = record -> {
+                String key = keyed.key(record);
+                if (keyed.isRemoval(record)) {
+                    latest.remove(key);
+                } else {
+                    R previous = latest.get(key);
+                    latest.put(key, previous == null ? record : keyed.merge(previous, record));
+                }
+            };
+            if (snapshot != null) {
+                readRecords(snapshot, 0, current.snapshotLength, merge);
+            }
+            for (File log : sealed) {
+                readRecords(log, 0, Long.MAX_VALUE, merge);
+            }
+            long length = 0;
+            try (FileOutputStream stream = new FileOutputStream(file(SNAPSHOT_PREFIX, newest, SNAPSHOT_SUFFIX))) {
+                OutputStream out = new BufferedOutputStream(stream, 64 * 1024);
+                for (R record : latest.values()) {
+                    byte[] frame = encode(record);
+                    out.write(frame);
+                    length += frame.length;
+                }
+                out.flush();
+                stream.getFD().sync();
+            }
+            bytesWritten.add(length);
+            next = new Checkpoint(newest, length, newest);
+        } else {
+            long snapshotId = snapshot != null ? current.snapshotId : newest;
+            long length = snapshot != null ? current.snapshotLength : 0;
+            try (FileChannel out = FileChannel.open(file(SNAPSHOT_PREFIX, snapshotId, SNAPSHOT_SUFFIX).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                out.truncate(length);
+                out.position(length);
+                for (File log : sealed) {
+                    long valid = readRecords(log, 0, Long.MAX_VALUE, null).end;
+                    try (FileChannel in = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+                        long copied = 0;
+                        while (copied < valid) {
+                            copied += in.transferTo(copied, valid - copied, out);
+                        }
+                    }
+                    length += valid;
+                    bytesWritten.add(valid);
+                }
+                out.force(true);
+            }
+            next = new Checkpoint(snapshotId, length, newest);
+        }
+        Checkpoint folded = next;
+        lock.hold(false, () -> {
+            commit(folded);
+            return null;
+        });
+        folds.recordSince(start);
+    }
+
+    // Makes a checkpoint current, then deletes every other snapshot and the
+    // folded logs past their retention
+    private void commit(Checkpoint next) throws IOException {
+        Path target = new File(dir, CHECKPOINT).toPath();
+        Path temp = target.resolveSibling(CHECKPOINT + ".tmp");
+        String text = next.snapshotId + " " + next.snapshotLength + " " + next.firstLog;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        long expired = System.currentTimeMillis() - LOG_RETENTION_MILLIS;
+        for (long id : ids(LOG_PREFIX, LOG_SUFFIX)) {
+            File log = file(LOG_PREFIX, id, LOG_SUFFIX);
+            if (id < next.firstLog && log.lastModified() < expired) Files.deleteIfExists(log.toPath());
+        }
+        for (long id : ids(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (id != next.snapshotId) Files.deleteIfExists(file(SNAPSHOT_PREFIX, id, SNAPSHOT_SUFFIX).toPath());
+        }
+    }
+
+    private Checkpoint readCheckpoint() throws IOException {
+        File file = new File(dir, CHECKPOINT);
+        if (!file.exists()) {
+            return new Checkpoint(0, 0, 1);
+        }
+        String[] parts = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+        try {
+            return new Checkpoint(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        } catch (RuntimeException e) {
+            throw new IOException("Unreadable checkpoint in " + dir, e);
+        }
+    }
+
+    // Reads framed records from a byte offset up to limit bytes into the file,
+    // passing each to replay if not null. Stops at the first torn or corrupt
+    // record.
+    private Scan readRecords(File file, long from, long limit, Consumer<R> replay) throws IOException {
+        Scan scan = new Scan();
+        if (!file.exists()) return scan;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            in.position(from);
+            long end = Math.min(in.size(), limit);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(FRAME_HEADER, Math.min(READ_BUFFER_SIZE, end - from)));
+            buffer.flip();
+            CRC32 crc = new CRC32();
+            while (true) {
+                if (buffer.remaining() < FRAME_HEADER) {
+                    buffer = fill(in, buffer, FRAME_HEADER, end - in.position());
+                    if (buffer.remaining() < FRAME_HEADER) break;
+                }
+                int start = buffer.position();
+                int length = buffer.getInt(start);
+                int expected = buffer.getInt(start + 4);
+                if (length < 0 || length > MAX_RECORD_SIZE) break;
+                if (buffer.remaining() < FRAME_HEADER + length) {
+                    buffer = fill(in, buffer, FRAME_HEADER + length, end - in.position());
+                    if (buffer.remaining() < FRAME_HEADER + length) break;
+                    start = buffer.position();
+                }
+                int payload = start + FRAME_HEADER;
+                crc.reset();
+                crc.update(buffer.array(), buffer.arrayOffset() + payload, length);
+                if ((int) crc.getValue() != expected) break;
+                if (replay != null) {
+                    int limitBefore = buffer.limit();
+                    buffer.position(payload).limit(payload + length);
+                    R record;
+                    try {
+                        record = codec.read(buffer);
+                    } catch (RuntimeException e) {
+                        break;
+                    } finally {
+                        buffer.limit(limitBefore);
+                    }
+                    replay.accept(record);
+                }
+                buffer.position(payload + length);
+                scan.end += FRAME_HEADER + length;
+                scan.records++;
+            }
+            return scan;
+        }
+    }
+
+    // Makes at least `need` bytes available if the file has them, growing the
+    // buffer if a record is larger, and tops up the rest while at it
+    private static ByteBuffer fill(FileChannel in, ByteBuffer buffer, int need, long unread) throws IOException {
+        if (buffer.capacity() < need) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(need, buffer.capacity() * 2));
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.hasRemaining() && unread > 0) {
+            int room = (int) Math.min(buffer.remaining(), unread);
+            int limitBefore = buffer.limit();
+            buffer.limit(buffer.position() + room);
+            int read = in.read(buffer);
+            buffer.limit(limitBefore);
+            if (read <= 0) break;
+            unread -= read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        pending.add(WAKE_UP);
+        try {
+            if (writerThread != null) {
+                writerThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (background != null) {
+            background.shutdown();
+            try {
+                background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            lock.close();
+            foldLock.close();
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    private List<Long> ids(String prefix, String suffix) {
+        List<Long> ids = new ArrayList<>();
+        String[] names = dir.list();
+        if (names == null) return ids;
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                try {
+                    ids.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private File file(String prefix, long id, String suffix) {
+        return new File(dir, String.format("%s%08d%s", prefix, id, suffix));
+    }
+
+    // Helpers for codecs: length-prefixed UTF-8 strings
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,322 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntToLongFunction;
+
+// Keyed store for user accounts, kept in a StorageEngine.
+//
+// Lookups go through a username -> UserData map. Changing a user appends that
+// user's current record to the write-ahead log, and on load the last record for
+// a username wins. Once superseded records outnumber live ones the log is
+// folded into a fresh snapshot. Accounts from the quiz_users.txt of earlier
+// versions are imported the first time.
+//
+// Records logged by other processes sharing the directory are merged into the
+// users held here. Login times and high scores only grow, so each takes the
+// larger of the two values. Quiz counts are logged with the attempts added
+// since this process last logged the user, and those are summed, so attempts
+// recorded by two processes at once both count. Every instance replays the
+// same records in the same order and ends up agreeing.
+class UserRepository implements Closeable {
+    private static final int COMPACTION_SLACK = 64;
+
+    enum Order { USERNAME, FULL_NAME, LAST_LOGIN, QUIZZES_TAKEN, HIGH_SCORE }
+
+    // A logged change to a user, also carrying how many of its quizzes were
+    // taken since the writer last logged it. The count goes after the fields
+    // of a plain record, which older versions read and ignore.
+    private static class Update extends UserData {
+        final int quizzesAdded;
+
+        Update(UserData user, int quizzesTaken, int quizzesAdded) {
+            super(user.username, user.password, user.fullName);
+            this.lastLogin = user.lastLogin;
+            this.quizzesTaken = quizzesTaken;
+            this.highScore = user.highScore;
+            this.quizzesAdded = quizzesAdded;
+        }
+    }
+
+    static final StorageEngine.KeyedCodec<UserData> CODEC = new StorageEngine.KeyedCodec<UserData>() {
+        @Override
+        public void write(UserData user, DataOutputStream out) throws IOException {
+            StorageEngine.writeString(out, user.username);
+            StorageEngine.writeString(out, user.password);
+            StorageEngine.writeString(out, user.fullName);
+            out.writeLong(user.lastLogin);
+            out.writeInt(user.quizzesTaken);
+            out.writeInt(user.highScore);
+            if (user instanceof Update) {
+                out.writeInt(((Update) user).quizzesAdded);
+            }
+        }
+
+        @Override
+        public UserData read(ByteBuffer in) {
+            UserData user = new UserData(StorageEngine.readString(in), StorageEngine.readString(in),
+                StorageEngine.readString(in));
+            user.lastLogin = in.getLong();
+            user.quizzesTaken = in.getInt();
+            user.highScore = in.getInt();
+            return in.remaining() >= 4 ? new Update(user, user.quizzesTaken, in.getInt()) : user;
+        }
+
+        @Override
+        public String key(UserData user) {
+            return user.username;
+        }
+
+        @Override
+        public boolean isRemoval(UserData user) {
+            return false;
+        }
+
+        // The first record for a user is the one that created it, or its
+        // total in a snapshot, so its quizzesTaken is the count so far
+        @Override
+        public UserData merge(UserData previous, UserData next) {
+            UserData merged = plain(previous);
+            mergeInto(merged, next);
+            return merged;
+        }
+    };
+
+    private final File legacyFile;
+    private final StorageEngine<UserData> engine;
+    private final Map<String, UserData> users = new LinkedHashMap<>();
+    // The same users in the order they were added, for paging by position
+    private final List<UserData> ordered = new ArrayList<>();
+    // Per user, the quizzes taken that the log already accounts for, so the
+    // next record logs only the ones added since
+    private final Map<String, Integer> quizzesLogged = new HashMap<>();
+
+    // Failed log writes go to the error handler, on the log writer thread
+    public UserRepository(File legacyFile, File storeDir, Consumer<IOException> errorHandler) {
+        this.legacyFile = legacyFile;
+        this.engine = new StorageEngine<>(storeDir, CODEC, 0, errorHandler);
+    }
+
+    public void load() throws IOException {
+        importLegacy();
+        Map<String, UserData> loaded = new LinkedHashMap<>();
+        engine.load(user -> loaded.merge(user.username, user, CODEC::merge));
+        synchronized (this) {
+            users.clear();
+            ordered.clear();
+            quizzesLogged.clear();
+            for (UserData user : loaded.values()) {
+                UserData loadedUser = plain(user);
+                users.put(loadedUser.username, loadedUser);
+                ordered.add(loadedUser);
+                quizzesLogged.put(loadedUser.username, loadedUser.quizzesTaken);
+            }
+        }
+    }
+
+    // Starts the write-ahead log; called by updateAll if need be.
+    public void start() throws IOException {
+        importLegacy();
+        engine.start(this::merge);
+    }
+
+    // Takes in a user changed by another process
+    private synchronized void merge(UserData changed) {
+        UserData user = users.get(changed.username);
+        int logged = quizzesLogged.getOrDefault(changed.username, 0);
+        if (user == null) {
+            user = plain(changed);
+            users.put(user.username, user);
+            ordered.add(user);
+            quizzesLogged.put(user.username, user.quizzesTaken);
+        } else {
+            mergeInto(user, changed);
+            quizzesLogged.put(user.username, changed instanceof Update
+                ? logged + ((Update) changed).quizzesAdded : Math.max(logged, changed.quizzesTaken));
+        }
+    }
+
+    // Updates the user in place, as screens may hold on to it
+    private static void mergeInto(UserData user, UserData changed) {
+        user.password = changed.password;
+        user.fullName = changed.fullName;
+        user.lastLogin = Math.max(user.lastLogin, changed.lastLogin);
+        if (changed instanceof Update) {
+            user.quizzesTaken += ((Update) changed).quizzesAdded;
+        } else {
+            // Logged by an older version, with only the total
+            user.quizzesTaken = Math.max(user.quizzesTaken, changed.quizzesTaken);
+        }
+        user.highScore = Math.max(user.highScore, changed.highScore);
+    }
+
+    private static UserData plain(UserData user) {
+        if (!(user instanceof Update)) return user;
+        UserData copy = new UserData(user.username, user.password, user.fullName);
+        copy.lastLogin = user.lastLogin;
+        copy.quizzesTaken = user.quizzesTaken;
+        copy.highScore = user.highScore;
+        return copy;
+    }
+
+    // Sets the store up from the legacy text file, where the last line for a
+    // username wins, and sets the file aside.
+    private void importLegacy() throws IOException {
+        if (engine.exists()) return;
+        if (engine.create(this::readLegacy) && legacyFile.exists()) {
+            legacyFile.renameTo(new File(legacyFile.getPath() + ".imported"));
+        }
+    }
+
+    private Collection<UserData> readLegacy() throws IOException {
+        Map<String, UserData> imported = new LinkedHashMap<>();
+        if (legacyFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(legacyFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty()) continue;
+                    UserData user = UserData.fromString(line);
+                    if (user != null) {
+                        imported.put(user.username, user);
+                    }
+                }
+            }
+        }
+        return imported.values();
+    }
+
+    public synchronized UserData get(String username) {
+        return users.get(username);
+    }
+
+    public synchronized boolean contains(String username) {
+        return users.containsKey(username);
+    }
+
+    // Adds a new account and writes it to the log at once; returns false if
+    // the username is taken, here or by another process sharing the directory.
+    // Not holding this lock while appending, as the engine takes it to merge.
+    public boolean add(UserData user) throws IOException {
+        start();
+        return engine.appendIf(user, () -> !contains(user.username), () -> {
+            synchronized (this) {
+                users.put(user.username, user);
+                ordered.add(user);
+                quizzesLogged.put(user.username, user.quizzesTaken);
+            }
+        });
+    }
+
+    // Counts a finished quiz towards the user's stats. Under this lock, so
+    // updateAll never logs a count that misses an attempt.
+    public synchronized void recordAttempt(UserData user, int percent) {
+        user.quizzesTaken++;
+        if (percent > user.highScore) {
+            user.highScore = percent;
+        }
+    }
+
+    // Persists the current state of a user already in the repository.
+    public void update(UserData user) throws IOException {
+        updateAll(Collections.singletonList(user));
+    }
+
+    // Persists several users with one batch of log appends, synced to disk.
+    public void updateAll(Collection<UserData> changed) throws IOException {
+        if (changed.isEmpty()) return;
+        start();
+        // Not holding this lock while waiting, as the writer may need it to merge other processes' changes
+        synchronized (this) {
+            for (UserData user : changed) {
+                int taken = user.quizzesTaken;
+                int logged = quizzesLogged.getOrDefault(user.username, 0);
+                engine.append(new Update(user, taken, taken - logged));
+                quizzesLogged.put(user.username, taken);
+            }
+            if (engine.recordsSinceCheckpoint() > 2 * users.size() + COMPACTION_SLACK) {
+                engine.checkpoint();
+            }
+        }
+        flush();
+    }
+
+    // Blocks until every appended record is on disk
+    public void flush() throws IOException {
+        try {
+            engine.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving users");
+        }
+    }
+
+    // Positions, as in page(), of the users whose username or full name
+    // contains the lower-cased text (null for all of them), sorted in the
+    // order given (null keeps the order they were added in)
+    public synchronized int[] select(String text, Order order, boolean descending) {
+        int[] positions = new int[ordered.size()];
+        int count = 0;
+        for (int i = 0; i < ordered.size(); i++) {
+            UserData user = ordered.get(i);
+            if (text == null || user.username.toLowerCase().contains(text)
+                    || user.fullName.toLowerCase().contains(text)) {
+                positions[count++] = i;
+            }
+        }
+
+        if (order != null && count > 1) {
+            IntToLongFunction key;
+            switch (order) {
+                case USERNAME:
+                case FULL_NAME: {
+                    String[] names = new String[ordered.size()];
+                    for (int i = 0; i < names.length; i++) {
+                        names[i] = order == Order.USERNAME ? ordered.get(i).username : ordered.get(i).fullName;
+                    }
+                    int[] ranks = RowOrder.ranks(names);
+                    key = i -> ranks[i];
+                    break;
+                }
+                case LAST_LOGIN: {
+                    long[] logins = new long[ordered.size()];
+                    for (int i = 0; i < logins.length; i++) {
+                        logins[i] = ordered.get(i).lastLogin;
+                    }
+                    int[] ranks = RowOrder.ranks(logins);
+                    key = i -> ranks[i];
+                    break;
+                }
+                case QUIZZES_TAKEN:
+                    key = i -> RowOrder.key(ordered.get(i).quizzesTaken);
+                    break;
+                default:
+                    key = i -> RowOrder.key(ordered.get(i).highScore);
+                    break;
+            }
+            RowOrder.sort(positions, count, key, descending);
+        }
+        return count == positions.length ? positions : Arrays.copyOf(positions, count);
+    }
+
+    public synchronized List<UserData> all() {
+        return new ArrayList<>(ordered);
+    }
+
+    // The users at positions [from, to) in the order they were added
+    public synchronized List<UserData> page(int from, int to) {
+        from = Math.min(from, ordered.size());
+        return new ArrayList<>(ordered.subList(from, Math.max(from, Math.min(to, ordered.size()))));
+    }
+
+    public synchronized int size() {
+        return users.size();
+    }
+
+    @Override
+    public void close() {
+        engine.close();
+    }
+}
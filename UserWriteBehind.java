@@ -0,0 +1,108 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Write-behind buffer for user record changes (lastLogin, quizzesTaken,
+// highScore). New accounts are written through by UserRepository.add.
+//
+// Changed users are only marked dirty. A flush writes each dirty user once, in
+// a single append to the user log, either one flush interval after the first
+// change or as soon as the threshold of dirty users is reached, whichever comes
+// first. So the number of disk writes follows the flush rate, not the number of
+// logins and results. The flusher thread only runs while there is something to
+// write. close() flushes whatever is left; QuizStore calls it from the shutdown
+// hooks.
+class UserWriteBehind implements Closeable {
+    private final UserRepository users;
+    private final long flushIntervalMillis;
+    private final int flushThreshold;
+    private final Consumer<IOException> errorHandler;
+    private final Map<String, UserData> dirty = new LinkedHashMap<>();
+    private final ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "user-write-behind");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean flushQueued = false;
+
+    public UserWriteBehind(UserRepository users, long flushIntervalMillis, int flushThreshold, Consumer<IOException> errorHandler) {
+        this.users = users;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushThreshold = flushThreshold;
+        this.errorHandler = errorHandler;
+        flusher.setKeepAliveTime(1, TimeUnit.SECONDS);
+        flusher.allowCoreThreadTimeOut(true);
+        flusher.setRemoveOnCancelPolicy(true);
+    }
+
+    public void markDirty(UserData user) {
+        synchronized (dirty) {
+            dirty.put(user.username, user);
+            if (flusher.isShutdown()) {
+                // Closing; close() writes what is left
+                return;
+            }
+            if (dirty.size() >= flushThreshold && !flushQueued) {
+                flushQueued = true;
+                flusher.execute(this::flushQuietly);
+            } else if (scheduledFlush == null) {
+                scheduledFlush = flusher.schedule(this::flushQuietly, flushIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public void markDirty(Collection<UserData> changed) {
+        for (UserData user : changed) {
+            markDirty(user);
+        }
+    }
+
+    // Writes every dirty user now. On failure they stay dirty for the next attempt.
+    public synchronized void flush() throws IOException {
+        List<UserData> batch;
+        synchronized (dirty) {
+            flushQueued = false;
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (dirty.isEmpty()) return;
+            batch = new ArrayList<>(dirty.values());
+            dirty.clear();
+        }
+        try {
+            users.updateAll(batch);
+        } catch (IOException e) {
+            synchronized (dirty) {
+                for (UserData user : batch) {
+                    dirty.putIfAbsent(user.username, user);
+                }
+                if (scheduledFlush == null && !flusher.isShutdown()) {
+                    scheduledFlush = flusher.schedule(this::flushQuietly, flushIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.List;
+
+// Micro-benchmarks for the parse, load, save and grade hot paths.
+//
+// Build and run from the repository root:
+//   javac -d out *.java benchmarks/*.java
+//   java -cp out QuizBenchmarks [name filter] [--sizes 1000,100000,1000000]
+//
+// Each benchmark runs against generated data in a temporary directory. It is
+// warmed up first, then timed over several iterations. The report gives time
+// per iteration, time per row and bytes allocated per row (from the thread
+// allocation counter), so regressions show up as numbers.
+class QuizBenchmarks {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final int[] DEFAULT_SIZES = {1_000, 100_000, 1_000_000};
+
+    // Keeps results reachable so the JIT cannot drop the measured work
+    static volatile Object sink;
+
+    private abstract static class Benchmark {
+        final String name;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        void setup(File dir, int rows) throws Exception {
+        }
+
+        // Runs one iteration over the data set
+        abstract void run(File dir, int rows) throws Exception;
+    }
+
+    private static final List<Benchmark> BENCHMARKS = Arrays.asList(
+        new Benchmark("Question.fromString") {
+            String[] lines;
+
+            void setup(File dir, int rows) {
+                lines = new String[rows];
+                for (int i = 0; i < rows; i++) {
+                    lines[i] = DataSets.question(i).toString();
+                }
+            }
+
+            void run(File dir, int rows) {
+                for (String line : lines) {
+                    sink = Question.fromString(line);
+                }
+            }
+        },
+        new Benchmark("QuizResult.fromString") {
+            String[] lines;
+
+            void setup(File dir, int rows) {
+                lines = new String[rows];
+                for (int i = 0; i < rows; i++) {
+                    lines[i] = DataSets.result(i).toString();
+                }
+            }
+
+            void run(File dir, int rows) {
+                for (String line : lines) {
+                    sink = QuizResult.fromString(line);
+                }
+            }
+        },
+        new Benchmark("loadUsers") {
+            void setup(File dir, int rows) throws IOException {
+                DataSets.writeUsers(dir, rows);
+            }
+
+            void run(File dir, int rows) throws IOException {
+                QuizStore store = DataSets.store(dir);
+                store.loadUsers();
+                sink = store;
+            }
+        },
+        new Benchmark("loadQuizData") {
+            void setup(File dir, int rows) throws IOException {
+                DataSets.writeQuizzes(dir, rows);
+            }
+
+            void run(File dir, int rows) throws IOException {
+                QuizStore store = DataSets.store(dir);
+                store.loadQuizData();
+                sink = store;
+            }
+        },
+        new Benchmark("loadResults") {
+            void setup(File dir, int rows) throws IOException {
+                DataSets.writeResults(dir, rows);
+            }
+
+            void run(File dir, int rows) throws IOException {
+                QuizStore store = DataSets.store(dir);
+                store.loadResults();
+                sink = store;
+            }
+        },
+        new Benchmark("loadQuizQuestions") {
+            void setup(File dir, int rows) throws IOException {
+                DataSets.writeQuestions(dir, "BENCH", rows);
+            }
+
+            void run(File dir, int rows) throws IOException {
+                // A fresh store each time so the question cache is cold
+                sink = DataSets.store(dir).loadQuizQuestions("BENCH");
+            }
+        },
+        new Benchmark("drawQuestions") {
+            QuizStore store;
+            QuizData quiz;
+
+            void setup(File dir, int rows) throws IOException {
+                DataSets.writeQuestions(dir, "BENCH", rows);
+                store = DataSets.store(dir);
+                quiz = new QuizData("BENCH", "Bench", "Bench", 10);
+                quiz.drawCount = DataSets.QUESTIONS_PER_QUIZ;
+            }
+
+            // One student's draw from a bank of the given size
+            void run(File dir, int rows) throws IOException {
+                sink = store.drawQuestions(quiz, "student" + rows);
+            }
+        },
+        new Benchmark("searchQuestions") {
+            QuizStore store;
+
+            void setup(File dir, int rows) throws IOException {
+                DataSets.writeQuestions(dir, "BENCH", rows);
+                store = DataSets.store(dir);
+                store.loadAllAsync().join();
+                store.addQuiz(new QuizData("BENCH", "Bench", "Bench", 10));
+                store.questionIndex();
+            }
+
+            // A two-word prefix search over a bank of the given size
+            void run(File dir, int rows) throws IOException {
+                sink = store.searchQuestions("squared 12", 500);
+            }
+        },
+        new Benchmark("saveResults") {
+            QuizResult[] results;
+
+            void setup(File dir, int rows) {
+                results = new QuizResult[rows];
+                for (int i = 0; i < rows; i++) {
+                    results[i] = DataSets.result(i);
+                }
+            }
+
+            // Records every result and waits until the journal has synced them
+            void run(File dir, int rows) throws IOException {
+                DataSets.deleteResults(dir);
+                try (QuizStore store = DataSets.store(dir)) {
+                    store.start();
+                    store.recordResults(Arrays.asList(results));
+                    store.flush();
+                }
+            }
+        },
+        new Benchmark("grade") {
+            Question[] questions;
+            int[][] answers;
+
+            void setup(File dir, int rows) {
+                questions = new Question[DataSets.QUESTIONS_PER_QUIZ];
+                for (int i = 0; i < questions.length; i++) {
+                    questions[i] = DataSets.question(i);
+                }
+                Random random = new Random(42);
+                answers = new int[rows][questions.length];
+                for (int[] sheet : answers) {
+                    for (int i = 0; i < sheet.length; i++) {
+                        sheet[i] = 1 + random.nextInt(4);
+                    }
+                }
+            }
+
+            // The per-question check QuizSession.nextQuestion performs, over a whole sheet
+            void run(File dir, int rows) {
+                long total = 0;
+                for (int[] sheet : answers) {
+                    total += GradingEngine.score(questions, sheet);
+                }
+                sink = total;
+            }
+        }
+    );
+
+    public static void main(String[] args) throws Exception {
+        String filter = null;
+        int[] sizes = DEFAULT_SIZES;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--sizes") && i + 1 < args.length) {
+                sizes = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+            } else {
+                filter = args[i];
+            }
+        }
+
+        System.out.printf("%-24s %10s %14s %12s %12s%n", "Benchmark", "Rows", "ms/iteration", "ns/row", "bytes/row");
+        for (Benchmark benchmark : BENCHMARKS) {
+            if (filter != null && !benchmark.name.contains(filter)) continue;
+            for (int rows : sizes) {
+                Path dir = Files.createTempDirectory("quiz-bench");
+                try {
+                    measure(benchmark, dir.toFile(), rows);
+                } finally {
+                    DataSets.deleteRecursively(dir.toFile());
+                }
+            }
+        }
+    }
+
+    private static void measure(Benchmark benchmark, File dir, int rows) throws Exception {
+        benchmark.setup(dir, rows);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            benchmark.run(dir, rows);
+        }
+
+        long nanos = 0;
+        long bytes = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            System.gc();
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            benchmark.run(dir, rows);
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes() - allocatedBefore;
+        }
+
+        double perIteration = (double) nanos / MEASURED_ITERATIONS;
+        System.out.printf("%-24s %10d %14.3f %12.1f %12.1f%n", benchmark.name, rows,
+            perIteration / 1_000_000, perIteration / rows, (double) bytes / MEASURED_ITERATIONS / rows);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    // Deterministic synthetic data in the legacy text formats, which the store
+    // imports on its first load
+    static class DataSets {
+        static final int QUESTIONS_PER_QUIZ = 30;
+        private static final String TIMESTAMP = "2025-09-16 08:00:02";
+
+        static QuizStore store(File dir) {
+            return new QuizStore(dir, e -> { throw new UncheckedIOException(e); });
+        }
+
+        static Question question(int i) {
+            return new Question("What is " + i + " squared", new String[] {
+                String.valueOf(i * i), String.valueOf(i * 2), String.valueOf(i + 1), String.valueOf(i)
+            }, 1);
+        }
+
+        static QuizResult result(int i) {
+            return new QuizResult("student" + (i % 10_000), "QUIZ" + (i % 50), i % (QUESTIONS_PER_QUIZ + 1), QUESTIONS_PER_QUIZ);
+        }
+
+        static void writeUsers(File dir, int rows) throws IOException {
+            writeLines(new File(dir, QuizStore.USERS_FILE), rows,
+                i -> "student" + i + ";secret" + i + ";Student Number " + i + ";" + TIMESTAMP + ";" + (i % 20) + ";" + (i % 101));
+        }
+
+        static void writeQuizzes(File dir, int rows) throws IOException {
+            writeLines(new File(dir, QuizStore.QUIZ_DATA_FILE), rows,
+                i -> "QUIZ" + i + ":Quiz " + i + ":Subject " + (i % 12) + ":" + (5 + i % 30));
+        }
+
+        static void writeResults(File dir, int rows) throws IOException {
+            writeLines(new File(dir, QuizStore.RESULTS_FILE), rows, i -> result(i).toString());
+        }
+
+        static void writeQuestions(File dir, String quizCode, int rows) throws IOException {
+            List<Question> questions = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                questions.add(question(i));
+            }
+            File questionsDir = new File(dir, QuizStore.QUIZ_QUESTIONS_DIR);
+            questionsDir.mkdirs();
+            QuestionBankFile.write(new File(questionsDir, quizCode + QuestionBankFile.EXTENSION), questions);
+        }
+
+        static void deleteResults(File dir) {
+            new File(dir, QuizStore.RESULTS_FILE).delete();
+            deleteRecursively(new File(dir, QuizStore.RESULTS_JOURNAL_DIR));
+            deleteRecursively(new File(new File(dir, QuizStore.STORE_DIR), "results"));
+        }
+
+        static void deleteRecursively(File file) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    deleteRecursively(child);
+                }
+            }
+            file.delete();
+        }
+
+        private interface Line {
+            String at(int i);
+        }
+
+        private static void writeLines(File file, int rows, Line line) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+                for (int i = 0; i < rows; i++) {
+                    writer.write(line.at(i));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+}
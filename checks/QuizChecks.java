@@ -0,0 +1,527 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.*;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.List;
+
+// Self-checks for the storage, index and grading code, each comparing what
+// it produces against the same answer worked out the slow way.
+//
+// Build and run from the repository root:
+//   javac -d out *.java checks/*.java
+//   java -cp out QuizChecks [name filter]
+//
+// Each check runs in its own temporary directory and throws on the first
+// mismatch. Exits with status 1 if any check failed.
+class QuizChecks {
+    private abstract static class Check {
+        final String name;
+
+        Check(String name) {
+            this.name = name;
+        }
+
+        abstract void run(File dir) throws Exception;
+    }
+
+    private static final List<Check> CHECKS = Arrays.asList(
+        new Check("StorageEngine torn tail") {
+            void run(File dir) throws Exception {
+                List<String> expected = new ArrayList<>();
+                try (StorageEngine<String> engine = Storage.engine(dir)) {
+                    engine.start(record -> { });
+                    for (int i = 0; i < 100; i++) {
+                        engine.append("record " + i);
+                        expected.add("record " + i);
+                    }
+                    engine.flush();
+                }
+
+                // A crash part way through the last record: cut it short and
+                // leave some garbage behind it
+                File log = Storage.newestLog(dir);
+                try (FileChannel channel = FileChannel.open(log.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(channel.size() - 3);
+                    channel.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5}), channel.size());
+                }
+                expected.remove(expected.size() - 1);
+                expect(Storage.replay(dir), expected, "replay after a torn record");
+
+                // Writes after the torn bytes must not be hidden behind them
+                try (StorageEngine<String> engine = Storage.engine(dir)) {
+                    engine.load(record -> { });
+                    engine.start(record -> { });
+                    for (int i = 0; i < 10; i++) {
+                        engine.append("after " + i);
+                        expected.add("after " + i);
+                    }
+                    engine.flush();
+                }
+                expect(Storage.replay(dir), expected, "replay of writes after a torn record");
+
+                // A corrupt byte mid-log ends that log's replay at the record before it
+                log = Storage.newestLog(dir);
+                try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+                    long middle = file.length() / 2;
+                    file.seek(middle);
+                    int b = file.read();
+                    file.seek(middle);
+                    file.write(b ^ 0xFF);
+                }
+                List<String> replayed = Storage.replay(dir);
+                check(replayed.size() < expected.size(),
+                    "replay after a corrupt record read " + replayed.size() + " records");
+                expect(replayed, expected.subList(0, replayed.size()), "replay after a corrupt record");
+            }
+        },
+        new Check("QuestionIndex middle edits and compaction") {
+            void run(File dir) {
+                Random random = new Random(1);
+                QuestionIndex index = new QuestionIndex();
+                Map<String, List<Question>> quizzes = new LinkedHashMap<>();
+                quizzes.put("A", Questions.generate(random, "a", 1_000));
+                quizzes.put("B", Questions.generate(random, "b", 70_000));
+                for (Map.Entry<String, List<Question>> quiz : quizzes.entrySet()) {
+                    index.update(quiz.getKey(), quiz.getValue());
+                }
+                Questions.verify(index, quizzes, "after indexing");
+
+                // Edit one question in the middle, then insert and remove one
+                List<Question> a = new ArrayList<>(quizzes.get("A"));
+                a.set(500, Questions.question(random, "edited", 500));
+                Questions.save(index, quizzes, "A", a);
+                Questions.verify(index, quizzes, "after a middle edit");
+                a = new ArrayList<>(a);
+                a.add(300, Questions.question(random, "inserted", 300));
+                a.remove(701);
+                Questions.save(index, quizzes, "A", a);
+                Questions.verify(index, quizzes, "after an insert and a removal");
+
+                // Replacing all but the ends of B leaves more dead documents
+                // than live ones, which compacts the postings
+                List<Question> b = new ArrayList<>(quizzes.get("B").subList(0, 10));
+                b.addAll(Questions.generate(random, "replaced", 500));
+                b.addAll(quizzes.get("B").subList(69_990, 70_000));
+                Questions.save(index, quizzes, "B", b);
+                Questions.verify(index, quizzes, "after compaction");
+
+                a = new ArrayList<>(a);
+                a.set(10, Questions.question(random, "compacted", 10));
+                a.remove(900);
+                Questions.save(index, quizzes, "A", a);
+                quizzes.put("C", Questions.generate(random, "c", 100));
+                index.update("C", quizzes.get("C"));
+                Questions.verify(index, quizzes, "after edits following compaction");
+            }
+        },
+        new Check("Leaderboard against recomputation") {
+            void run(File dir) {
+                // Few percentages and a narrow time range, so buckets are large
+                // and ties in percentage and time are common
+                Random random = new Random(2);
+                Leaderboard leaderboard = new Leaderboard();
+                Map<String, QuizResult> best = new HashMap<>();
+                for (int i = 1; i <= 200_000; i++) {
+                    QuizResult result = new QuizResult("user" + random.nextInt(20_000), "Q1", random.nextInt(11), 10);
+                    result.timestamp = random.nextInt(2_000) * 1000L;
+                    leaderboard.add(result);
+                    QuizResult previous = best.get(result.username);
+                    if (previous == null || Ranking.compare(result, previous) < 0) {
+                        best.put(result.username, result);
+                    }
+                    if (i % 50_000 == 0 || i == 1_000) {
+                        Ranking.verify(leaderboard, best, "after " + i + " results");
+                    }
+                }
+            }
+        },
+        new Check("ResultRollups against recomputation") {
+            void run(File dir) throws IOException {
+                // A year of results, crossing the daylight saving changes when
+                // run with a zone that has them (-Duser.timezone=Europe/London)
+                Random random = new Random(3);
+                long start = LocalDate.of(2024, 1, 1).atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+                List<QuizResult> results = new ArrayList<>();
+                for (int i = 0; i < 100_000; i++) {
+                    int total = 1 + random.nextInt(20);
+                    QuizResult result = new QuizResult("user" + random.nextInt(1_000), "Q" + random.nextInt(5),
+                        random.nextInt(total + 1), total);
+                    result.timestamp = (start + random.nextInt(366 * 86_400)) * 1000;
+                    results.add(result);
+                }
+
+                ResultRollups rollups = new ResultRollups();
+                for (QuizResult result : results) {
+                    rollups.add(result);
+                }
+                Rollups.verify(rollups, results, random, "as added");
+
+                // Saved over part of the table, then loaded with the rest after it
+                ResultTable table = new ResultTable();
+                for (QuizResult result : results.subList(0, 60_000)) {
+                    table.add(result);
+                }
+                File file = new File(dir, "rollups.dat");
+                ResultRollups.load(file, table).save(file, table);
+                for (QuizResult result : results.subList(60_000, results.size())) {
+                    table.add(result);
+                }
+                Rollups.verify(ResultRollups.load(file, table), results, random, "loaded and caught up");
+
+                // A file saved for other results is rebuilt rather than trusted
+                List<QuizResult> other = new ArrayList<>(results);
+                QuizResult changed = new QuizResult("user0", "Q0", 0, 1);
+                changed.timestamp = results.get(0).timestamp;
+                other.set(0, changed);
+                ResultTable otherTable = new ResultTable();
+                for (QuizResult result : other) {
+                    otherTable.add(result);
+                }
+                Rollups.verify(ResultRollups.load(file, otherTable), other, random, "loaded for other results");
+            }
+        },
+        new Check("GradingEngine skips malformed lines") {
+            void run(File dir) throws IOException {
+                // Bad lines before, in and after the first chunk of 65,536
+                Map<Integer, String> bad = new TreeMap<>();
+                bad.put(3, "nobody");
+                bad.put(40_000, "user40000;1,x,2");
+                bad.put(70_000, ";1,2,3,4");
+                bad.put(90_000, "user90000");
+                Random random = new Random(4);
+                StringBuilder input = new StringBuilder();
+                Map<String, Integer> expected = new HashMap<>();
+                int[] correct = {2, 1, 4, 3};
+                for (int line = 1; line <= 100_000; line++) {
+                    if (bad.containsKey(line)) {
+                        input.append(bad.get(line)).append('\n');
+                        continue;
+                    }
+                    if (line % 10_000 == 0) {
+                        input.append('\n');
+                        continue;
+                    }
+                    int score = 0;
+                    StringBuilder answers = new StringBuilder();
+                    for (int q = 0; q < correct.length; q++) {
+                        int answer = 1 + random.nextInt(4);
+                        if (answer == correct[q]) score++;
+                        answers.append(q > 0 ? "," : "").append(answer);
+                    }
+                    expected.put("user" + line, score);
+                    input.append("user").append(line).append(';').append(answers).append('\n');
+                }
+
+                try (QuizStore store = new QuizStore(dir, e -> {
+                    throw new UncheckedIOException(e);
+                })) {
+                    store.loadAllAsync().join();
+                    store.addQuiz(new QuizData("G1", "Grading", "Checks", 10));
+                    List<Question> questions = new ArrayList<>();
+                    for (int q = 0; q < correct.length; q++) {
+                        questions.add(new Question("Question " + q, new String[] {"a", "b", "c", "d"}, correct[q]));
+                    }
+                    store.saveQuizQuestions("G1", questions);
+
+                    GradingEngine.Report report = new GradingEngine.Report();
+                    report.graded = new GradingEngine(store).grade("G1", GradingEngine.readSubmissions(
+                        new BufferedReader(new StringReader(input.toString())), report));
+                    expect(report.graded, (long) expected.size(), "submissions graded");
+                    List<String> lines = new ArrayList<>();
+                    for (String error : report.errors) {
+                        lines.add(error.substring(0, error.indexOf(':')));
+                    }
+                    List<String> wanted = new ArrayList<>();
+                    for (int line : bad.keySet()) {
+                        wanted.add("Line " + line);
+                    }
+                    expect(lines, wanted, "lines rejected");
+
+                    Map<String, Integer> recorded = new HashMap<>();
+                    for (QuizResult result : store.results()) {
+                        check(recorded.put(result.username, result.score) == null, result.username + " recorded twice");
+                    }
+                    expect(recorded, expected, "recorded scores");
+                }
+            }
+        }
+    );
+
+    private static class Storage {
+        static final StorageEngine.Codec<String> CODEC = new StorageEngine.Codec<String>() {
+            public void write(String record, DataOutputStream out) throws IOException {
+                StorageEngine.writeString(out, record);
+            }
+
+            public String read(ByteBuffer in) {
+                return StorageEngine.readString(in);
+            }
+        };
+
+        static StorageEngine<String> engine(File dir) {
+            return new StorageEngine<>(dir, CODEC, 0, e -> {
+                throw new UncheckedIOException(e);
+            });
+        }
+
+        static List<String> replay(File dir) throws IOException {
+            List<String> records = new ArrayList<>();
+            try (StorageEngine<String> engine = engine(dir)) {
+                engine.load(records::add);
+            }
+            return records;
+        }
+
+        static File newestLog(File dir) {
+            File[] logs = dir.listFiles((d, name) -> name.startsWith("wal-") && name.endsWith(".log"));
+            Arrays.sort(logs);
+            return logs[logs.length - 1];
+        }
+    }
+
+    private static class Questions {
+        static final String[] WORDS = {"alpha", "alpine", "beta", "bet", "gamma", "delta", "del", "epsilon"};
+        static final String[] QUERIES = {"al", "alpha", "bet del", "gam", "ep n1", "n12", "a1", "edited",
+            "inserted alp", "replaced", "compacted", "c5", "zzz"};
+
+        static Question question(Random random, String tag, int n) {
+            String[] options = new String[4];
+            for (int i = 0; i < options.length; i++) {
+                options[i] = WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(50);
+            }
+            String text = "What is " + tag + n + ", " + WORDS[random.nextInt(WORDS.length)] + " n" + n + "?";
+            return new Question(text, options, 1 + random.nextInt(options.length));
+        }
+
+        static List<Question> generate(Random random, String tag, int count) {
+            List<Question> questions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                questions.add(question(random, tag, i));
+            }
+            return questions;
+        }
+
+        static void save(QuestionIndex index, Map<String, List<Question>> quizzes, String code, List<Question> questions) {
+            quizzes.put(code, questions);
+            index.update(code, questions);
+        }
+
+        // Compares search and sameText against a scan of every question
+        static void verify(QuestionIndex index, Map<String, List<Question>> quizzes, String when) {
+            for (String query : QUERIES) {
+                List<String> words = QuestionIndex.tokens(query);
+                Set<String> expected = new TreeSet<>();
+                for (Map.Entry<String, List<Question>> quiz : quizzes.entrySet()) {
+                    List<Question> questions = quiz.getValue();
+                    for (int position = 0; position < questions.size(); position++) {
+                        if (matches(questions.get(position), words)) {
+                            expected.add(quiz.getKey() + "#" + position);
+                        }
+                    }
+                }
+                expect(hits(index.search(query, Integer.MAX_VALUE)), expected, "search \"" + query + "\" " + when);
+            }
+
+            List<Question> a = quizzes.get("A");
+            for (int position = 0; position < a.size(); position += 97) {
+                String text = a.get(position).getQuestionText();
+                List<String> tokens = QuestionIndex.tokens(text);
+                Set<String> expected = new TreeSet<>();
+                for (Map.Entry<String, List<Question>> quiz : quizzes.entrySet()) {
+                    List<Question> questions = quiz.getValue();
+                    for (int i = 0; i < questions.size(); i++) {
+                        if (QuestionIndex.tokens(questions.get(i).getQuestionText()).equals(tokens)) {
+                            expected.add(quiz.getKey() + "#" + i);
+                        }
+                    }
+                }
+                expect(hits(index.sameText(text.toUpperCase())), expected, "sameText \"" + text + "\" " + when);
+            }
+        }
+
+        // Whether every word starts some word of the question's text or options
+        static boolean matches(Question question, List<String> words) {
+            List<String> tokens = new ArrayList<>(QuestionIndex.tokens(question.getQuestionText()));
+            for (String option : question.getOptions()) {
+                tokens.addAll(QuestionIndex.tokens(option));
+            }
+            for (String word : words) {
+                boolean found = false;
+                for (String token : tokens) {
+                    if (token.startsWith(word)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) return false;
+            }
+            return true;
+        }
+
+        static Set<String> hits(List<QuestionIndex.Hit> hits) {
+            Set<String> keys = new TreeSet<>();
+            for (QuestionIndex.Hit hit : hits) {
+                check(keys.add(hit.quizCode + "#" + hit.position), "duplicate hit " + hit.quizCode + "#" + hit.position);
+            }
+            return keys;
+        }
+    }
+
+    private static class Ranking {
+        // Leaderboard order: higher percentage, then earlier, then username
+        static int compare(QuizResult a, QuizResult b) {
+            int byPercent = Integer.compare(QuizStats.percentOf(b), QuizStats.percentOf(a));
+            if (byPercent != 0) return byPercent;
+            if (a.timestamp != b.timestamp) return Long.compare(a.timestamp, b.timestamp);
+            return a.username.compareTo(b.username);
+        }
+
+        static void verify(Leaderboard leaderboard, Map<String, QuizResult> best, String when) {
+            List<QuizResult> ranked = new ArrayList<>(best.values());
+            ranked.sort(Ranking::compare);
+            expect(leaderboard.size(), ranked.size(), "size " + when);
+            for (int i = 0; i < ranked.size(); i++) {
+                QuizResult result = ranked.get(i);
+                expect(leaderboard.rank(result.username), i + 1, "rank of " + result.username + " " + when);
+                Leaderboard.Entry entry = leaderboard.best(result.username);
+                expect(entry.percent + "@" + entry.timestamp,
+                    QuizStats.percentOf(result) + "@" + result.timestamp, "best of " + result.username + " " + when);
+            }
+            expect(leaderboard.rank("nobody"), 0, "rank of a user without results " + when);
+
+            List<String> expected = new ArrayList<>();
+            for (QuizResult result : ranked.subList(0, Math.min(Leaderboard.TOP_K, ranked.size()))) {
+                expected.add(result.username);
+            }
+            List<String> actual = new ArrayList<>();
+            for (Leaderboard.Entry entry : leaderboard.top(Leaderboard.TOP_K)) {
+                actual.add(entry.username);
+            }
+            expect(actual, expected, "top " + when);
+        }
+    }
+
+    private static class Rollups {
+        // Each bucket's local start time, count, sum, min and max, worked
+        // out with java.time from every result
+        static Map<String, TreeMap<LocalDateTime, long[]>> recompute(List<QuizResult> results,
+                                                                    ResultRollups.Period period) {
+            Map<String, TreeMap<LocalDateTime, long[]>> byQuiz = new HashMap<>();
+            for (QuizResult result : results) {
+                LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(result.timestamp),
+                    ZoneId.systemDefault());
+                LocalDateTime bucketStart;
+                switch (period) {
+                    case HOUR:
+                        bucketStart = time.truncatedTo(ChronoUnit.HOURS);
+                        break;
+                    case DAY:
+                        bucketStart = time.toLocalDate().atStartOfDay();
+                        break;
+                    default:
+                        bucketStart = time.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                            .atStartOfDay();
+                        break;
+                }
+                int percent = QuizStats.percentOf(result);
+                long[] stats = byQuiz.computeIfAbsent(result.quizCode, k -> new TreeMap<>())
+                    .computeIfAbsent(bucketStart, k -> new long[] {0, 0, percent, percent});
+                stats[0]++;
+                stats[1] += percent;
+                stats[2] = Math.min(stats[2], percent);
+                stats[3] = Math.max(stats[3], percent);
+            }
+            return byQuiz;
+        }
+
+        static void verify(ResultRollups rollups, List<QuizResult> results, Random random, String when) {
+            for (ResultRollups.Period period : ResultRollups.Period.values()) {
+                Map<String, TreeMap<LocalDateTime, long[]>> expected = recompute(results, period);
+                for (String quizCode : expected.keySet()) {
+                    List<LocalDate[]> ranges = new ArrayList<>();
+                    ranges.add(new LocalDate[] {LocalDate.of(2023, 1, 1), LocalDate.of(2026, 1, 1)});
+                    ranges.add(new LocalDate[] {LocalDate.of(2024, 3, 31), LocalDate.of(2024, 3, 31)});
+                    ranges.add(new LocalDate[] {LocalDate.of(2024, 10, 27), LocalDate.of(2024, 10, 27)});
+                    ranges.add(new LocalDate[] {LocalDate.of(2024, 5, 2), LocalDate.of(2024, 5, 1)});
+                    for (int i = 0; i < 5; i++) {
+                        LocalDate from = LocalDate.of(2024, 1, 1).plusDays(random.nextInt(366));
+                        ranges.add(new LocalDate[] {from, from.plusDays(random.nextInt(40))});
+                    }
+                    for (LocalDate[] range : ranges) {
+                        List<String> wanted = new ArrayList<>();
+                        for (Map.Entry<LocalDateTime, long[]> bucket : expected.get(quizCode).entrySet()) {
+                            LocalDate first = bucket.getKey().toLocalDate();
+                            LocalDate last = period == ResultRollups.Period.WEEK ? first.plusDays(6) : first;
+                            if (!range[1].isBefore(range[0]) && !last.isBefore(range[0]) && !first.isAfter(range[1])) {
+                                long[] stats = bucket.getValue();
+                                wanted.add(describe(bucket.getKey(), stats[0], stats[1], stats[2], stats[3]));
+                            }
+                        }
+                        List<String> actual = new ArrayList<>();
+                        for (ResultRollups.Bucket bucket : rollups.range(quizCode, period, range[0], range[1])) {
+                            actual.add(describe(bucket.start(), bucket.count, bucket.sum, bucket.min, bucket.max));
+                        }
+                        expect(actual, wanted, quizCode + " by " + period + " from " + range[0] + " to " + range[1]
+                            + " " + when);
+                    }
+                }
+            }
+        }
+
+        static String describe(LocalDateTime start, long count, long sum, long min, long max) {
+            return start + " " + count + " " + sum + " " + min + " " + max;
+        }
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    static void expect(Object actual, Object expected, String what) {
+        if (!actual.equals(expected)) {
+            throw new IllegalStateException(what + ": expected " + abbreviate(expected) + " but got " + abbreviate(actual));
+        }
+    }
+
+    private static String abbreviate(Object value) {
+        String text = String.valueOf(value);
+        return text.length() <= 200 ? text : text.substring(0, 200) + "...";
+    }
+
+    public static void main(String[] args) throws IOException {
+        String filter = args.length > 0 ? args[0] : null;
+        int failed = 0;
+        for (Check check : CHECKS) {
+            if (filter != null && !check.name.contains(filter)) continue;
+            File dir = Files.createTempDirectory("quiz-check").toFile();
+            try {
+                check.run(dir);
+                System.out.println("ok      " + check.name);
+            } catch (Exception | AssertionError e) {
+                failed++;
+                System.out.println("FAILED  " + check.name + ": " + e);
+            } finally {
+                deleteRecursively(dir);
+            }
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}